@@ -0,0 +1,73 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比线程亲和快速路径和链接池空闲队列的借用吞吐量
+ * 每个线程借用后立即归还, 启用线程亲和时同一线程大多取回自己刚归还的链接, 不经过链接池的锁
+ * @author meilon
+ * @see SftpPoolConfig#isThreadAffinity()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class AffinityBorrowBenchmark {
+
+    @Param({"16"})
+    public int maxTotalPerKey;
+
+    @Param({"false", "true"})
+    public boolean threadAffinity;
+
+    private SftpFixture fixture;
+
+    private SftpPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(SftpPoolConfig.builder()
+                .setMaxTotalPerKey(maxTotalPerKey)
+                .setMaxIdlePerKey(maxTotalPerKey)
+                .setMinIdlePerKey(0)
+                .setThreadAffinity(threadAffinity)
+                .build());
+        pool = fixture.getPool();
+        for (int i = 0; i < maxTotalPerKey; i++) {
+            pool.addObject(SftpFixture.SFTP_ID);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String borrowReturn() throws Exception {
+        try (SftpConnect sftp = pool.borrowObject(SftpFixture.SFTP_ID)) {
+            return sftp.getId();
+        }
+    }
+}
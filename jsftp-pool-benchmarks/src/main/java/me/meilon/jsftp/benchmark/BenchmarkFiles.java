@@ -0,0 +1,45 @@
+package me.meilon.jsftp.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 准备基准测试使用的本地文件
+ * @author meilon
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * 创建指定大小的随机内容文件
+     */
+    static void create(Path path, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] buffer = new byte[(int) Math.min(size, 64 * 1024)];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(buffer);
+                int len = (int) Math.min(buffer.length, remaining);
+                out.write(buffer, 0, len);
+                remaining -= len;
+            }
+        }
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
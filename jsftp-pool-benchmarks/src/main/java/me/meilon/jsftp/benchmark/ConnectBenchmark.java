@@ -0,0 +1,51 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPooledFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 建立一个新链接 (ssh 握手, 认证, 打开 sftp 通道) 的耗时
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectBenchmark {
+
+    private EmbeddedSftpServer server;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = EmbeddedSftpServer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    public boolean createConnect() throws Exception {
+        try (SftpConnect sftp = SftpPooledFactory.createConnect("127.0.0.1", server.getPort(),
+                EmbeddedSftpServer.USER, EmbeddedSftpServer.PASSWORD)) {
+            return sftp.isConnected();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同文件大小下服务端复制文件的耗时
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int sizeKb;
+
+    private SftpFixture fixture;
+
+    private SftpConnect sftp;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(new SftpPoolConfig());
+        BenchmarkFiles.create(fixture.getServer().getRoot().resolve("source.bin"), sizeKb * 1024L);
+        sftp = fixture.getPool().borrowObject(SftpFixture.SFTP_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sftp.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public void copyfile() throws Exception {
+        sftp.copyfile("/source.bin", "/target.bin");
+    }
+}
@@ -0,0 +1,71 @@
+package me.meilon.jsftp.benchmark;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * 进程内的 sftp 服务端, 监听 127.0.0.1 的随机端口
+ * 根目录是一个临时目录, 关闭时删除
+ * @author meilon
+ */
+public class EmbeddedSftpServer implements Closeable {
+
+    public static final String USER = "bench";
+    public static final String PASSWORD = "bench";
+
+    private final SshServer sshd;
+
+    private final Path root;
+
+    private EmbeddedSftpServer(SshServer sshd, Path root) {
+        this.sshd = sshd;
+        this.root = root;
+    }
+
+    /**
+     * 启动服务端
+     * @return 已启动的服务端
+     * @throws IOException 启动失败
+     */
+    public static EmbeddedSftpServer start() throws IOException {
+        Path root = Files.createTempDirectory("jsftp-bench");
+        SshServer sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("127.0.0.1");
+        sshd.setPort(0);
+        // jsch 0.1.55 只支持 ssh-rsa 主机密钥
+        SimpleGeneratorHostKeyProvider keyProvider = new SimpleGeneratorHostKeyProvider();
+        keyProvider.setAlgorithm("RSA");
+        sshd.setKeyPairProvider(keyProvider);
+        sshd.setPasswordAuthenticator((user, password, session) -> USER.equals(user) && PASSWORD.equals(password));
+        sshd.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        sshd.start();
+        return new EmbeddedSftpServer(sshd, root);
+    }
+
+    public int getPort() {
+        return sshd.getPort();
+    }
+
+    /**
+     * 服务端根目录在本地的路径, 可以直接在本地准备测试文件
+     * @return 根目录
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sshd.stop(true);
+        BenchmarkFiles.deleteTree(root);
+    }
+}
@@ -0,0 +1,84 @@
+package me.meilon.jsftp.benchmark;
+
+import com.jcraft.jsch.ChannelSftp;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 不同目录大小下列出目录的耗时
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmark {
+
+    private static final String DIR = "/list";
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    private SftpFixture fixture;
+
+    private SftpConnect sftp;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(new SftpPoolConfig());
+        Path dir = Files.createDirectories(fixture.getServer().getRoot().resolve("list"));
+        for (int i = 0; i < files; i++) {
+            Files.createFile(dir.resolve("file-" + i));
+        }
+        sftp = fixture.getPool().borrowObject(SftpFixture.SFTP_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sftp.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<ChannelSftp.LsEntry> listFiles() throws Exception {
+        return sftp.listFiles(DIR);
+    }
+
+    @Benchmark
+    public List<String> listFileNames() throws Exception {
+        return sftp.listFileNames(DIR);
+    }
+
+    @Benchmark
+    public long streamFiles() {
+        try (Stream<ChannelSftp.LsEntry> stream = sftp.streamFiles(DIR)) {
+            return stream.count();
+        }
+    }
+
+    @Benchmark
+    public List<ChannelSftp.LsEntry> listFirst10() throws Exception {
+        return sftp.listFiles(DIR, 10);
+    }
+}
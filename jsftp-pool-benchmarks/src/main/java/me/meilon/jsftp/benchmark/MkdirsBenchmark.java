@@ -0,0 +1,81 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同深度下 mkdirs 的耗时
+ * newTree 每次在新的父目录下创建整条路径, existingTree 重复创建已存在的路径
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MkdirsBenchmark {
+
+    @Param({"1", "4", "8"})
+    public int depth;
+
+    /**
+     * 0 表示不记录已存在的目录
+     */
+    @Param({"0", "1024"})
+    public int knownDirsSize;
+
+    private SftpFixture fixture;
+
+    private SftpConnect sftp;
+
+    private String suffix;
+
+    private String existing;
+
+    private long counter = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(SftpPoolConfig.builder().setKnownDirsSize(knownDirsSize).build());
+        sftp = fixture.getPool().borrowObject(SftpFixture.SFTP_ID);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < depth; i++) {
+            sb.append("/d").append(i);
+        }
+        suffix = sb.toString();
+        existing = "/existing" + suffix;
+        sftp.mkdirs(existing);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sftp.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public void newTree() throws Exception {
+        sftp.mkdirs("/new/n" + counter++ + suffix);
+    }
+
+    @Benchmark
+    public void existingTree() throws Exception {
+        sftp.mkdirs(existing);
+    }
+}
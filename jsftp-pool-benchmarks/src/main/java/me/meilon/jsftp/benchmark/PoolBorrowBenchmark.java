@@ -0,0 +1,75 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程竞争下借用和归还链接的吞吐量
+ * 线程数多于链接数时, 结果包含等待空闲链接的时间
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class PoolBorrowBenchmark {
+
+    @Param({"4", "16"})
+    public int maxTotalPerKey;
+
+    private SftpFixture fixture;
+
+    private SftpPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(SftpPoolConfig.builder()
+                .setMaxTotalPerKey(maxTotalPerKey)
+                .setMaxIdlePerKey(maxTotalPerKey)
+                .setMinIdlePerKey(0)
+                .build());
+        pool = fixture.getPool();
+        for (int i = 0; i < maxTotalPerKey; i++) {
+            pool.addObject(SftpFixture.SFTP_ID);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String borrowReturn() throws Exception {
+        try (SftpConnect sftp = pool.borrowObject(SftpFixture.SFTP_ID)) {
+            return sftp.getId();
+        }
+    }
+
+    @Benchmark
+    public String borrowStatReturn() throws Exception {
+        try (SftpConnect sftp = pool.borrowObject(SftpFixture.SFTP_ID)) {
+            return sftp.getChannelSftp().realpath(".");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.SftpPooledFactory;
+import me.meilon.jsftp.core.conf.SftpConnConfig;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 基准测试使用的服务端和链接池
+ * @author meilon
+ */
+public class SftpFixture implements Closeable {
+
+    public static final String SFTP_ID = "bench";
+
+    private final EmbeddedSftpServer server;
+
+    private final SftpPooledFactory factory;
+
+    private final SftpPool pool;
+
+    public SftpFixture(SftpPoolConfig poolConfig) throws IOException {
+        this.server = EmbeddedSftpServer.start();
+        this.factory = new SftpPooledFactory(poolConfig);
+        factory.setSftpConnConfig("127.0.0.1", server.getPort(),
+                EmbeddedSftpServer.USER, EmbeddedSftpServer.PASSWORD, SFTP_ID);
+        this.pool = factory.getSftpPool();
+    }
+
+    public EmbeddedSftpServer getServer() {
+        return server;
+    }
+
+    public SftpPooledFactory getFactory() {
+        return factory;
+    }
+
+    public SftpPool getPool() {
+        return pool;
+    }
+
+    public SftpConnConfig getConnConfig() {
+        return factory.getSftpConnConf(SFTP_ID);
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.close();
+        server.close();
+    }
+}
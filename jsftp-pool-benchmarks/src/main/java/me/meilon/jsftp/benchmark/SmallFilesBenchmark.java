@@ -0,0 +1,85 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import me.meilon.jsftp.core.transfer.TransferSummary;
+import me.meilon.jsftp.core.transfer.TreeUploader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传 10000 个小文件, 对比平台线程和虚拟线程
+ * 运行环境不支持虚拟线程时 VIRTUAL 回退为平台线程, 需要在 JDK 21 及以上运行才有对比意义
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SmallFilesBenchmark {
+
+    @Param({"10000"})
+    public int files;
+
+    @Param({"1024"})
+    public int fileSize;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ThreadMode threadMode;
+
+    @Param({"16"})
+    public int parallelism;
+
+    private SftpFixture fixture;
+
+    private TreeUploader uploader;
+
+    private Path localDir;
+
+    private int round = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(SftpPoolConfig.builder()
+                .setMaxTotalPerKey(parallelism)
+                .setMaxIdlePerKey(parallelism)
+                .setThreadMode(threadMode)
+                .build());
+        localDir = Files.createTempDirectory("jsftp-bench-small");
+        for (int i = 0; i < files; i++) {
+            // 每个子目录 1000 个文件
+            Path dir = Files.createDirectories(localDir.resolve("d" + i / 1000));
+            BenchmarkFiles.create(dir.resolve("f" + i), fileSize);
+        }
+        uploader = new TreeUploader(fixture.getPool());
+        uploader.setParallelism(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+        BenchmarkFiles.deleteTree(localDir);
+    }
+
+    @Benchmark
+    public TransferSummary uploadTree() throws Exception {
+        return uploader.uploadTree(SftpFixture.SFTP_ID, localDir.toString(), "/small/r" + round++, null);
+    }
+}
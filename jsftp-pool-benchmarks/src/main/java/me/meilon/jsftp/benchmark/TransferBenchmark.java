@@ -0,0 +1,87 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import me.meilon.jsftp.core.transfer.ParallelDownloader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同文件大小下上传和下载的耗时
+ * 吞吐量 = sizeKb / 耗时
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int sizeKb;
+
+    private SftpFixture fixture;
+
+    private SftpConnect sftp;
+
+    private ParallelDownloader downloader;
+
+    private Path localDir;
+
+    private String localSource;
+
+    private String localTarget;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(SftpPoolConfig.builder().setMaxTotalPerKey(8).build());
+        localDir = Files.createTempDirectory("jsftp-bench-local");
+        Path source = localDir.resolve("source.bin");
+        BenchmarkFiles.create(source, sizeKb * 1024L);
+        BenchmarkFiles.create(fixture.getServer().getRoot().resolve("remote.bin"), sizeKb * 1024L);
+        localSource = source.toString();
+        localTarget = localDir.resolve("target.bin").toString();
+        sftp = fixture.getPool().borrowObject(SftpFixture.SFTP_ID);
+        downloader = new ParallelDownloader(fixture.getPool());
+        downloader.setMinPartSize(1024 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sftp.close();
+        fixture.close();
+        BenchmarkFiles.deleteTree(localDir);
+    }
+
+    @Benchmark
+    public void upload() throws Exception {
+        sftp.uploadFile(localSource, "/upload.bin");
+    }
+
+    @Benchmark
+    public void download() throws Exception {
+        sftp.download("/remote.bin", localTarget);
+    }
+
+    @Benchmark
+    public long downloadParallel() throws Exception {
+        return downloader.downloadParallel(SftpFixture.SFTP_ID, "/remote.bin", localTarget, 4);
+    }
+}
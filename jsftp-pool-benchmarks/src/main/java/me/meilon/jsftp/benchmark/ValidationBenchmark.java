@@ -0,0 +1,60 @@
+package me.meilon.jsftp.benchmark;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPooledFactory;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.apache.commons.pool2.PooledObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 链接池借出和归还时校验一个链接的开销
+ * @author meilon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private SftpFixture fixture;
+
+    private SftpPooledFactory factory;
+
+    private SftpConnect connect;
+
+    private PooledObject<SftpConnect> pooled;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new SftpFixture(new SftpPoolConfig());
+        factory = fixture.getFactory();
+        connect = fixture.getPool().borrowObject(SftpFixture.SFTP_ID);
+        pooled = factory.wrap(connect);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connect.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return factory.validateObject(SftpFixture.SFTP_ID, pooled);
+    }
+}
@@ -0,0 +1,105 @@
+package me.meilon.jsftp.client;
+
+import me.meilon.jsftp.core.utils.ThreadUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 异步客户端使用的线程池
+ * @author meilon
+ */
+final class AsyncExecutors {
+
+    private AsyncExecutors() {
+    }
+
+    /**
+     * 创建有界线程池
+     * @param sftpId 指定sftp的唯一id, 用于线程命名
+     * @param config 线程池配置
+     * @return 线程池
+     */
+    static ThreadPoolExecutor newExecutor(String sftpId, JsftpAsyncConfig config) {
+        int threads = Math.max(1, config.getThreads());
+        BlockingQueue<Runnable> queue = config.getQueueCapacity() > 0
+                ? new ArrayBlockingQueue<>(config.getQueueCapacity()) : new LinkedBlockingQueue<>();
+        ThreadFactory factory = ThreadUtil.newThreadFactory("jsftp-async-" + sftpId, config.getThreadMode());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+                factory, rejectHandler(config.getRejectPolicy()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 提交任务, 任务被拒绝时返回的 future 以异常结束
+     */
+    static <P> CompletableFuture<P> submit(ThreadPoolExecutor executor, Supplier<P> supplier) {
+        CompletableFuture<P> future = new CompletableFuture<>();
+        try {
+            executor.execute(new AsyncTask<>(future, supplier));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static RejectedExecutionHandler rejectHandler(JsftpAsyncConfig.RejectPolicy policy) {
+        if (policy == JsftpAsyncConfig.RejectPolicy.CALLER_RUNS) {
+            return new ThreadPoolExecutor.CallerRunsPolicy();
+        }
+        if (policy == JsftpAsyncConfig.RejectPolicy.DISCARD_OLDEST) {
+            return (r, executor) -> {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("executor is shutdown");
+                }
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest instanceof AsyncTask) {
+                    ((AsyncTask<?>) oldest).reject(new RejectedExecutionException("discarded by newer task"));
+                }
+                executor.execute(r);
+            };
+        }
+        return new ThreadPoolExecutor.AbortPolicy();
+    }
+
+    /**
+     * 将任务结果写入 future 的任务包装
+     * future 已经结束 (例如被调用方取消) 时不再执行
+     */
+    private static final class AsyncTask<P> implements Runnable {
+
+        private final CompletableFuture<P> future;
+
+        private final Supplier<P> supplier;
+
+        AsyncTask(CompletableFuture<P> future, Supplier<P> supplier) {
+            this.future = future;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        void reject(RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package me.meilon.jsftp.client;
+
+import com.jcraft.jsch.ChannelSftp;
+import me.meilon.jsftp.client.function.JsftpConsumer;
+import me.meilon.jsftp.client.function.JsftpFunction;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 异步 sftp 客户端
+ * <p>
+ * 借用链接和执行 sftp 操作都在该 sftpId 独立的有界线程池中完成, 调用线程不会阻塞在远程 IO 上;
+ * 操作失败时返回的 future 以 {@link me.meilon.jsftp.client.excetpion.SftpClientRunException} 异常结束,
+ * 任务队列已满时按 {@link JsftpAsyncConfig#getRejectPolicy()} 处理
+ * @author meilon
+ */
+public class JsftpAsyncClient {
+
+    protected final JsftpClient client;
+    protected final ThreadPoolExecutor executor;
+
+    public JsftpAsyncClient(JsftpClient client, ThreadPoolExecutor executor) {
+        this.client = client;
+        this.executor = executor;
+    }
+
+    /**
+     * 获取对应的同步客户端
+     * @return 同步客户端
+     */
+    public JsftpClient getClient() {
+        return client;
+    }
+
+    /**
+     * 当前等待执行的任务数
+     * @return 队列中的任务数
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 异步执行 sftp 操作
+     * 有返回值
+     * @param function 执行函数
+     * @param <P> 执行结果
+     * @return 执行结果
+     */
+    public <P> CompletableFuture<P> runAsync(JsftpFunction<P> function){
+        return AsyncExecutors.submit(executor, () -> client.run(function));
+    }
+
+    /**
+     * 异步执行 sftp 操作
+     * 无返回值
+     * @param fun 执行函数
+     * @return 执行完成的通知
+     */
+    public CompletableFuture<Void> runAsync(JsftpConsumer fun){
+        return AsyncExecutors.submit(executor, () -> {
+            client.run(fun);
+            return null;
+        });
+    }
+
+    /**
+     * 异步上传文件
+     * @param localFilePath 本地文件路径
+     * @param remotePath 远程路径, 可以是目录, 也可以是文件
+     * @return 上传完成的通知
+     */
+    public CompletableFuture<Void> uploadAsync(String localFilePath, String remotePath){
+        return runAsync((JsftpConsumer) sftp -> sftp.uploadFile(localFilePath, remotePath));
+    }
+
+    /**
+     * 异步上传文件流
+     * 上传完成后不会关闭文件流
+     * @param fileIo 文件流
+     * @param remoteFilePath 远程文件路径, 必须是包含文件名的完整路径
+     * @return 上传完成的通知
+     */
+    public CompletableFuture<Void> uploadAsync(InputStream fileIo, String remoteFilePath){
+        return runAsync((JsftpConsumer) sftp -> sftp.uploadFile(fileIo, remoteFilePath));
+    }
+
+    /**
+     * 异步下载文件
+     * @param remoteFilePath 远程文件地址
+     * @param localFilePath 本地文件地址
+     * @return 下载完成的通知
+     */
+    public CompletableFuture<Void> downloadAsync(String remoteFilePath, String localFilePath){
+        return runAsync((JsftpConsumer) sftp -> sftp.download(remoteFilePath, localFilePath));
+    }
+
+    /**
+     * 异步列出远程目录下的文件属性
+     * @param remotePath 远程目录
+     * @return 文件属性列表
+     */
+    public CompletableFuture<List<ChannelSftp.LsEntry>> listFilesAsync(String remotePath){
+        return runAsync((JsftpFunction<List<ChannelSftp.LsEntry>>) sftp -> sftp.listFiles(remotePath));
+    }
+
+    /**
+     * 异步列出远程目录下的文件名
+     * @param remotePath 远程目录
+     * @return 文件名列表
+     */
+    public CompletableFuture<List<String>> listFileNamesAsync(String remotePath){
+        return runAsync((JsftpFunction<List<String>>) sftp -> sftp.listFileNames(remotePath));
+    }
+}
@@ -0,0 +1,87 @@
+package me.meilon.jsftp.client;
+
+import me.meilon.jsftp.core.conf.ThreadMode;
+
+/**
+ * 异步客户端的线程池配置
+ * 每个 sftpId 使用一个独立的线程池
+ * @author meilon
+ */
+public class JsftpAsyncConfig {
+
+    /**
+     * 每个 sftpId 的工作线程数;
+     * 平台线程模式下超过链接池的 maxTotalPerKey 没有意义, 多出的线程只会阻塞在借用链接上;
+     * 虚拟线程模式下可以设置得很大, 用线程数代替队列吸收突发请求
+     * 默认 4
+     */
+    private int threads = 4;
+
+    /**
+     * 工作线程类型
+     * 默认 {@link ThreadMode#PLATFORM}
+     */
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+    /**
+     * 每个 sftpId 等待执行的最大任务数, 超出后按 {@link #rejectPolicy} 处理
+     * 默认 256
+     */
+    private int queueCapacity = 256;
+
+    /**
+     * 任务队列已满时的处理策略
+     * 默认 {@link RejectPolicy#ABORT}
+     */
+    private RejectPolicy rejectPolicy = RejectPolicy.ABORT;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public RejectPolicy getRejectPolicy() {
+        return rejectPolicy;
+    }
+
+    public void setRejectPolicy(RejectPolicy rejectPolicy) {
+        this.rejectPolicy = rejectPolicy;
+    }
+
+    /**
+     * 任务队列已满时的处理策略
+     */
+    public enum RejectPolicy {
+        /**
+         * 拒绝新任务, 返回的 future 以 {@link java.util.concurrent.RejectedExecutionException} 异常结束
+         */
+        ABORT,
+        /**
+         * 在提交任务的线程中直接执行, 对调用方形成背压
+         */
+        CALLER_RUNS,
+        /**
+         * 丢弃队列中最早的任务, 被丢弃任务的 future 以 {@link java.util.concurrent.RejectedExecutionException} 异常结束
+         */
+        DISCARD_OLDEST
+    }
+}
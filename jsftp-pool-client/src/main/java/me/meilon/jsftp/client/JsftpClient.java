@@ -1,11 +1,22 @@
 package me.meilon.jsftp.client;
 
+import com.jcraft.jsch.ChannelSftp;
 import me.meilon.jsftp.client.excetpion.SftpClientRunException;
 import me.meilon.jsftp.client.function.JsftpConsumer;
 import me.meilon.jsftp.client.function.JsftpFunction;
 import me.meilon.jsftp.core.SftpConnect;
 import me.meilon.jsftp.core.SftpPool;
 import me.meilon.jsftp.core.conf.SftpConnConfig;
+import me.meilon.jsftp.core.transfer.DirectoryMirror;
+import me.meilon.jsftp.core.transfer.MirrorOptions;
+import me.meilon.jsftp.core.transfer.MirrorSummary;
+import me.meilon.jsftp.core.transfer.ParallelDownloader;
+import me.meilon.jsftp.core.transfer.ParallelUploader;
+import me.meilon.jsftp.core.transfer.TransferSummary;
+import me.meilon.jsftp.core.transfer.TreeUploader;
+
+import java.io.FileFilter;
+import java.util.stream.Stream;
 
 
 /**
@@ -51,4 +62,97 @@ public class JsftpClient {
             throw new SftpClientRunException(e);
         }
     }
+
+    /**
+     * 分段并行下载大文件
+     * 同时从链接池借用多个链接, 每个链接下载文件的一个分段
+     * @param remoteFilePath 远程文件地址
+     * @param localFilePath 本地文件地址
+     * @param parts 分段数, 即同时使用的链接数
+     * @return 下载的字节数
+     * @see ParallelDownloader
+     */
+    public long downloadParallel(String remoteFilePath, String localFilePath, int parts){
+        try {
+            return new ParallelDownloader(pool).downloadParallel(config.getId(), remoteFilePath, localFilePath, parts);
+        } catch (Exception e) {
+            throw new SftpClientRunException(e);
+        }
+    }
+
+    /**
+     * 分段并行上传大文件
+     * 同时从链接池借用多个链接, 每个链接按偏移量写入文件的一个分段, 完成后改名为最终文件名
+     * @param localFilePath 本地文件路径
+     * @param remotePath 远程文件路径, 可以是目录, 也可以是文件
+     * @param parts 分段数, 即同时使用的链接数
+     * @return 上传后的远程文件路径
+     * @see ParallelUploader
+     */
+    public String uploadParallel(String localFilePath, String remotePath, int parts){
+        try {
+            return new ParallelUploader(pool).uploadParallel(config.getId(), localFilePath, remotePath, parts);
+        } catch (Exception e) {
+            throw new SftpClientRunException(e);
+        }
+    }
+
+    /**
+     * 递归并行上传本地目录
+     * 先按顺序创建远程目录, 再将文件分散到多个链接上并行上传
+     * @param localDir 本地目录
+     * @param remoteDir 远程目录, 不存在时自动创建
+     * @param filter 文件过滤器, 可以为空, 为空则不做过滤
+     * @param parallelism 同时使用的链接数
+     * @return 上传结果汇总
+     * @see TreeUploader
+     */
+    public TransferSummary uploadTree(String localDir, String remoteDir, FileFilter filter, int parallelism){
+        try {
+            TreeUploader uploader = new TreeUploader(pool);
+            uploader.setParallelism(parallelism);
+            return uploader.uploadTree(config.getId(), localDir, remoteDir, filter);
+        } catch (Exception e) {
+            throw new SftpClientRunException(e);
+        }
+    }
+
+    /**
+     * 将远程目录增量镜像到本地目录
+     * 只下载新增或大小, 修改时间有变化的文件
+     * @param remoteDir 远程目录
+     * @param localDir 本地目录
+     * @param options 镜像选项, 为空时使用默认选项
+     * @return 差异汇总
+     * @see DirectoryMirror
+     */
+    public MirrorSummary mirror(String remoteDir, String localDir, MirrorOptions options){
+        try {
+            return new DirectoryMirror(pool).mirror(config.getId(), remoteDir, localDir, options);
+        } catch (Exception e) {
+            throw new SftpClientRunException(e);
+        }
+    }
+
+    /**
+     * 流式列出远程目录, 适合超大目录
+     * 返回的流持有一个借出的链接, 流关闭时归还, 必须使用 try-with-resources 关闭
+     * @param remotePath 远程目录
+     * @return 文件属性流
+     * @see SftpConnect#streamFiles(String)
+     */
+    public Stream<ChannelSftp.LsEntry> streamFiles(String remotePath){
+        SftpConnect sftp;
+        try {
+            sftp = pool.borrowObject(config);
+        } catch (Exception e) {
+            throw new SftpClientRunException(e);
+        }
+        try {
+            return sftp.streamFiles(remotePath).onClose(sftp::close);
+        } catch (RuntimeException e) {
+            sftp.close();
+            throw new SftpClientRunException(e);
+        }
+    }
 }
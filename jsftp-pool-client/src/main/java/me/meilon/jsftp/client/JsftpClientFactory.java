@@ -5,6 +5,8 @@ import me.meilon.jsftp.core.conf.SftpConnConfig;
 import me.meilon.jsftp.core.conf.SftpPoolConfig;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * JsftpClient 工厂类
@@ -15,6 +17,16 @@ public class JsftpClientFactory{
 
     private final SftpPooledFactory pooledFactory;
 
+    /**
+     * 异步客户端的线程池配置
+     */
+    private JsftpAsyncConfig asyncConfig = new JsftpAsyncConfig();
+
+    /**
+     * 异步客户端的线程池, 按 sftpId 分组, 同一个 sftpId 的异步客户端共享
+     */
+    private final Map<String, ThreadPoolExecutor> asyncExecutors = new ConcurrentHashMap<>();
+
     public JsftpClientFactory() {
         this.pooledFactory = new SftpPooledFactory();
     }
@@ -51,6 +63,54 @@ public class JsftpClientFactory{
         return new JsftpClient(pooledFactory.getSftpPool(), config);
     }
 
+    public JsftpAsyncClient createAsyncClient(String host, Integer port,
+                                              String user, String password){
+        return createAsyncClient(createSftpClient(host, port, user, password));
+    }
+
+    public JsftpAsyncClient createAsyncClient(String host, Integer port,
+                                              String user, String password, String sftpId){
+        return createAsyncClient(createSftpClient(host, port, user, password, sftpId));
+    }
+
+    /**
+     * 基于同步客户端创建异步客户端
+     * 同一个 sftpId 的异步客户端共享一个线程池
+     * @param client 同步客户端
+     * @return 异步客户端
+     */
+    public JsftpAsyncClient createAsyncClient(JsftpClient client){
+        String sftpId = client.config.getId();
+        ThreadPoolExecutor executor = asyncExecutors.computeIfAbsent(sftpId,
+                k -> AsyncExecutors.newExecutor(k, asyncConfig));
+        return new JsftpAsyncClient(client, executor);
+    }
+
+    /**
+     * 设置异步客户端的线程池配置
+     * 只对之后创建的线程池生效
+     * @param asyncConfig 线程池配置
+     */
+    public void setAsyncConfig(JsftpAsyncConfig asyncConfig) {
+        if (asyncConfig == null){
+            throw new NullPointerException("JsftpAsyncConfig is null!");
+        }
+        this.asyncConfig = asyncConfig;
+    }
+
+    public JsftpAsyncConfig getAsyncConfig() {
+        return asyncConfig;
+    }
+
+    /**
+     * 关闭所有异步客户端的线程池
+     * 已提交的任务会继续执行完成
+     */
+    public void shutdownAsync() {
+        asyncExecutors.values().forEach(ThreadPoolExecutor::shutdown);
+        asyncExecutors.clear();
+    }
+
     public SftpPooledFactory getPooledFactory() {
         return pooledFactory;
     }
@@ -0,0 +1,92 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * 批量操作中单个操作的结果
+ * @author meilon
+ * @see SftpBatch#execute()
+ */
+public class BatchResult {
+
+    private final String operation;
+
+    private final String path;
+
+    private final String target;
+
+    private final int status;
+
+    private final String message;
+
+    private final SftpATTRS attrs;
+
+    BatchResult(String operation, String path, String target, int status, String message, SftpATTRS attrs) {
+        this.operation = operation;
+        this.path = path;
+        this.target = target;
+        this.status = status;
+        this.message = message;
+        this.attrs = attrs;
+    }
+
+    /**
+     * 操作类型, 如 delete, rename, chmod, stat
+     * @return 操作类型
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * 操作的绝对路径
+     * @return 路径
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 重命名的目标绝对路径, 其他操作为 null
+     * @return 目标路径
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * 服务端返回的状态码, 如 {@link ChannelSftp#SSH_FX_NO_SUCH_FILE}
+     * @return 状态码
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 文件或目录属性, 仅 stat 操作成功时有效
+     * @return 属性
+     */
+    public SftpATTRS getAttrs() {
+        return attrs;
+    }
+
+    public boolean isSuccess() {
+        return status == ChannelSftp.SSH_FX_OK;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "operation='" + operation + '\'' +
+                ", path='" + path + '\'' +
+                (target == null ? "" : ", target='" + target + '\'') +
+                ", status=" + status +
+                (message == null ? "" : ", message='" + message + '\'') +
+                '}';
+    }
+}
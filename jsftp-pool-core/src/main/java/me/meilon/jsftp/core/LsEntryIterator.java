@@ -0,0 +1,161 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import me.meilon.jsftp.core.exception.SftpRunException;
+import me.meilon.jsftp.core.utils.ThreadUtil;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式目录列表迭代器
+ * <p>
+ * {@link ChannelSftp#ls(String, ChannelSftp.LsEntrySelector)} 在读完目录或回调返回 BREAK 之前不会返回,
+ * 无法在调用者的线程中按需暂停, 因此在后台线程中执行 ls, 后台线程的类型与链接池的 {@link ThreadMode} 一致;
+ * 每收到一批 SSH_FXP_READDIR 结果就把条目放入队列交给调用者, 不需要等整个目录读完
+ * <p>
+ * 预读: 后台线程在调用者取走条目之前最多预读 capacity 个条目, 队列满时 ls 回调阻塞等待,
+ * 内存占用与目录大小无关; 此外 JSch 已经收到的一批 READDIR 结果 (通常几十到几百个条目) 也在内存中;
+ * capacity 为 0 时不预读, 每个条目直接交给调用者, 调用者取走后才处理下一个条目
+ * <p>
+ * 注: 迭代器关闭前 sftp 链接一直被后台线程使用, 不能用于其他操作, 即使已经迭代到末尾也必须调用 {@link #close()};
+ * 关闭后 ls 在下一个条目处终止, close 等待后台线程结束后才返回
+ * @author meilon
+ */
+public class LsEntryIterator implements Iterator<ChannelSftp.LsEntry>, Closeable {
+
+    /**
+     * 默认的队列容量
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * 队列结束标记
+     */
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile boolean closed = false;
+
+    private Object next;
+
+    /**
+     * @param capacity 预读的最大条目数, 0 表示不预读
+     */
+    LsEntryIterator(SftpConnect sftp, String remotePath, int capacity) {
+        this.queue = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new SynchronousQueue<>();
+        SftpPool pool = sftp.getPool();
+        ExecutorService producer = ThreadUtil.newExecutor("jsftp-ls", 1,
+                pool == null ? ThreadMode.PLATFORM : pool.getThreadMode());
+        producer.execute(() -> produce(sftp, remotePath));
+        // 任务执行完后线程自动退出
+        producer.shutdown();
+    }
+
+    private void produce(SftpConnect sftp, String remotePath) {
+        Object last = END;
+        try {
+            sftp.listFiles(remotePath, entry -> {
+                if (entry == null || closed) {
+                    return ChannelSftp.LsEntrySelector.BREAK;
+                }
+                String name = entry.getFilename();
+                if (".".equals(name) || "..".equals(name)) {
+                    return ChannelSftp.LsEntrySelector.CONTINUE;
+                }
+                try {
+                    queue.put(entry);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return ChannelSftp.LsEntrySelector.BREAK;
+                }
+                return closed ? ChannelSftp.LsEntrySelector.BREAK : ChannelSftp.LsEntrySelector.CONTINUE;
+            });
+        } catch (SftpException | RuntimeException e) {
+            last = e;
+        } finally {
+            finished.countDown();
+            if (!closed) {
+                try {
+                    queue.put(last);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (closed) {
+                return false;
+            }
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SftpRunException(e);
+            }
+        }
+        if (next == END) {
+            return false;
+        }
+        if (next instanceof Exception) {
+            Exception e = (Exception) next;
+            next = END;
+            throw new SftpRunException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public ChannelSftp.LsEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ChannelSftp.LsEntry entry = (ChannelSftp.LsEntry) next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * 终止 ls 并等待后台线程结束, 之后 sftp 链接可以用于其他操作
+     * 等待期间被中断时仍然等到后台线程结束, 避免链接在 ls 未结束时被交还给链接池, 返回前恢复中断标记
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        // 取走队列中的条目, 唤醒可能阻塞在 put 上的后台线程
+        while (finished.getCount() > 0) {
+            while (queue.poll() != null) {
+                // 丢弃未取走的条目
+            }
+            try {
+                finished.await(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        queue.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
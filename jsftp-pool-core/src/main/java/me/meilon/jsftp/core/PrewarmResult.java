@@ -0,0 +1,74 @@
+package me.meilon.jsftp.core;
+
+/**
+ * 单个 sftpId 的预热结果
+ * @author meilon
+ * @see SftpPool#prewarm()
+ */
+public class PrewarmResult {
+
+    private final String sftpId;
+
+    private final int requested;
+
+    private final int created;
+
+    private final long elapsedMillis;
+
+    private final Throwable error;
+
+    PrewarmResult(String sftpId, int requested, int created, long elapsedMillis, Throwable error) {
+        this.sftpId = sftpId;
+        this.requested = requested;
+        this.created = created;
+        this.elapsedMillis = elapsedMillis;
+        this.error = error;
+    }
+
+    public String getSftpId() {
+        return sftpId;
+    }
+
+    /**
+     * 需要新建的链接数, 已有的空闲链接不计入
+     * @return 链接数
+     */
+    public int getRequested() {
+        return requested;
+    }
+
+    /**
+     * 成功新建的链接数
+     * @return 链接数
+     */
+    public int getCreated() {
+        return created;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * 第一个失败原因, 全部成功时为 null
+     * @return 失败原因
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "PrewarmResult{" +
+                "sftpId='" + sftpId + '\'' +
+                ", requested=" + requested +
+                ", created=" + created +
+                ", elapsedMillis=" + elapsedMillis +
+                ", error=" + error +
+                '}';
+    }
+}
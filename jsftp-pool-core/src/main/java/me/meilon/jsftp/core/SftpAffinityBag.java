@@ -0,0 +1,153 @@
+package me.meilon.jsftp.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 借用链接的线程亲和快速路径, 参考 HikariCP 的 ConcurrentBag
+ * <p>
+ * 归还的链接不交还给 commons-pool2, 而是暂存在归还线程的本地列表和按 sftpId 分组的共享列表中, 对链接池来说仍处于借出状态,
+ * 暂存数通过 {@link SftpPool#getNumParked(String)} 单独统计;
+ * 借用时先在本线程最近归还的链接中通过 CAS 抢占, 再在共享列表中抢占其他线程暂存的链接, 都失败时才走链接池的空闲队列;
+ * 有线程正在从链接池借用时, 归还的链接直接交还给链接池, 不会让等待的线程饿死;
+ * 调整容量和空闲检测前暂存的链接会交还给链接池
+ * @author meilon
+ * @see me.meilon.jsftp.core.conf.SftpPoolConfig#isThreadAffinity()
+ */
+final class SftpAffinityBag {
+
+    /**
+     * 使用中
+     */
+    static final int IN_USE = 0;
+    /**
+     * 暂存在本对象中, 可被抢占
+     */
+    static final int PARKED = 1;
+    /**
+     * 已交还给链接池或已失效
+     */
+    static final int REMOVED = 2;
+
+    /**
+     * 每个线程最多记录的最近归还链接数
+     */
+    private static final int MAX_LOCAL = 16;
+
+    private final ThreadLocal<List<WeakReference<SftpConnect>>> local =
+            ThreadLocal.withInitial(() -> new ArrayList<>(MAX_LOCAL));
+
+    /**
+     * 暂存过的链接, 按 sftpId 分组; 交还给链接池时移除
+     */
+    private final Map<String, List<SftpConnect>> shared = new ConcurrentHashMap<>();
+
+    /**
+     * 抢占一个暂存的链接
+     * 先查找本线程最近归还的链接, 再查找其他线程暂存的链接
+     * @param sftpId 指定sftp的唯一id
+     * @return 抢占到的链接, 没有可用链接时返回 null
+     */
+    SftpConnect poll(String sftpId) {
+        List<WeakReference<SftpConnect>> refs = local.get();
+        for (int i = refs.size() - 1; i >= 0; i--) {
+            SftpConnect conn = refs.get(i).get();
+            if (conn == null || conn.getAffinityState() == REMOVED) {
+                refs.remove(i);
+                continue;
+            }
+            if (sftpId.equals(conn.getId()) && conn.casAffinityState(PARKED, IN_USE)) {
+                refs.remove(i);
+                return conn;
+            }
+        }
+        List<SftpConnect> conns = shared.get(sftpId);
+        if (conns != null) {
+            for (SftpConnect conn : conns) {
+                if (conn.casAffinityState(PARKED, IN_USE)) {
+                    return conn;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 暂存归还的链接
+     * @param conn 归还的链接, 状态应为使用中
+     * @return false: 链接状态不对, 未暂存
+     */
+    boolean park(SftpConnect conn) {
+        List<SftpConnect> conns = shared.computeIfAbsent(conn.getId(), k -> new CopyOnWriteArrayList<>());
+        if (!conns.contains(conn)) {
+            conns.add(conn);
+        }
+        if (!conn.casAffinityState(IN_USE, PARKED)) {
+            return false;
+        }
+        List<WeakReference<SftpConnect>> refs = local.get();
+        if (refs.size() >= MAX_LOCAL) {
+            refs.remove(0);
+        }
+        refs.add(new WeakReference<>(conn));
+        return true;
+    }
+
+    /**
+     * 将链接从本对象中移除, 之后不能再被抢占
+     * 只能移除使用中的链接, 暂存的链接需要先通过 {@link #poll(String)} 或 {@link #drain(String)} 取出
+     * @param conn 使用中的链接
+     */
+    void remove(SftpConnect conn) {
+        conn.setAffinityState(REMOVED);
+        List<SftpConnect> conns = shared.get(conn.getId());
+        if (conns != null) {
+            conns.remove(conn);
+        }
+    }
+
+    /**
+     * 取出指定 sftp 所有暂存的链接, 取出的链接已从本对象中移除
+     * @param sftpId 指定sftp的唯一id, 为 null 时取出所有 sftp 的链接
+     * @return 取出的链接
+     */
+    List<SftpConnect> drain(String sftpId) {
+        List<SftpConnect> drained = new ArrayList<>();
+        for (Map.Entry<String, List<SftpConnect>> e : shared.entrySet()) {
+            if (sftpId != null && !sftpId.equals(e.getKey())) {
+                continue;
+            }
+            for (SftpConnect conn : e.getValue()) {
+                if (conn.casAffinityState(PARKED, REMOVED)) {
+                    e.getValue().remove(conn);
+                    drained.add(conn);
+                }
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * 统计暂存的链接数
+     * @param sftpId 指定sftp的唯一id, 为 null 时统计所有 sftp 的链接
+     * @return 暂存的链接数
+     */
+    int count(String sftpId) {
+        int count = 0;
+        for (Map.Entry<String, List<SftpConnect>> e : shared.entrySet()) {
+            if (sftpId != null && !sftpId.equals(e.getKey())) {
+                continue;
+            }
+            for (SftpConnect conn : e.getValue()) {
+                if (conn.getAffinityState() == PARKED) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
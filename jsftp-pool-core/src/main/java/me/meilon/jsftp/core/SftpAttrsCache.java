@@ -0,0 +1,187 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.SftpATTRS;
+import me.meilon.jsftp.core.utils.FileUtil;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 远程文件属性缓存
+ * <p>
+ * 同一个 sftpId 的所有池化链接共享一个缓存, 用于减少 isDir/isFile/isExist 等方法的 lstat 请求;
+ * 容量有上限, 超出后按 LRU 淘汰; 条目在 ttl 后过期; 文件不存在的结果同样会被缓存;
+ * 通过 {@link SftpConnect} 执行的写操作 (mkdir, rename, delete, rmdir, put 等) 会自动失效对应条目,
+ * 直接通过 {@link com.jcraft.jsch.ChannelSftp} 或其他客户端修改的文件在 ttl 内可能读到旧值
+ * <p>
+ * 只缓存绝对路径, 相对路径由调用者基于当前目录转换; 路径不做 ".." 等规范化处理
+ * @author meilon
+ */
+public class SftpAttrsCache {
+
+    private final int maxSize;
+
+    private final long ttlNanos;
+
+    private final Map<String, CachedAttrs> cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public SftpAttrsCache(int maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.cache = new LinkedHashMap<String, CachedAttrs>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAttrs> eldest) {
+                if (size() > SftpAttrsCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 查询缓存
+     * @param path 绝对路径
+     * @return 缓存条目, 未命中或已过期时返回 null; 条目中的属性为 null 表示文件不存在
+     */
+    CachedAttrs get(String path) {
+        String key = normalize(path);
+        synchronized (cache) {
+            CachedAttrs cached = cache.get(key);
+            if (cached != null) {
+                if (System.nanoTime() - cached.time < ttlNanos) {
+                    hitCount.incrementAndGet();
+                    return cached;
+                }
+                cache.remove(key);
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存
+     * @param path 绝对路径
+     * @param attrs 文件属性, 为 null 表示文件不存在
+     */
+    void put(String path, SftpATTRS attrs) {
+        CachedAttrs cached = new CachedAttrs(attrs, System.nanoTime());
+        synchronized (cache) {
+            cache.put(normalize(path), cached);
+        }
+    }
+
+    /**
+     * 失效指定路径的缓存
+     * @param path 绝对路径
+     */
+    public void invalidate(String path) {
+        String key = normalize(path);
+        synchronized (cache) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * 失效指定路径及其下所有子路径的缓存
+     * 用于目录的改名和删除
+     * @param path 绝对路径
+     */
+    public void invalidateTree(String path) {
+        String key = normalize(path);
+        String prefix = key.endsWith(FileUtil.DEF_LINE_SEPARATOR) ? key : key + FileUtil.DEF_LINE_SEPARATOR;
+        synchronized (cache) {
+            cache.remove(key);
+            Iterator<String> it = cache.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 命中率, 没有查询时返回 0
+     * @return 命中率
+     */
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 去掉末尾的 "/", 使 "/a/b/" 和 "/a/b" 对应同一个条目
+     */
+    private static String normalize(String path) {
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return end == path.length() ? path : path.substring(0, end);
+    }
+
+    @Override
+    public String toString() {
+        return "SftpAttrsCache{size=" + size() + ", hit=" + hitCount + ", miss=" + missCount
+                + ", eviction=" + evictionCount + '}';
+    }
+
+    static final class CachedAttrs {
+
+        final SftpATTRS attrs;
+
+        final long time;
+
+        CachedAttrs(SftpATTRS attrs, long time) {
+            this.attrs = attrs;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import me.meilon.jsftp.core.protocol.SftpPacketChannel;
+import me.meilon.jsftp.core.protocol.SftpResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量执行删除, 重命名, 修改权限和获取属性等元数据操作
+ * <p>
+ * {@link ChannelSftp} 每个操作都要等待响应后才能发送下一个请求, 操作大量文件时耗时主要在网络往返上;
+ * 批量操作通过 {@link SftpPacketChannel} 同时保持多个请求在途, 整批操作只需要少量往返时间;
+ * 路径在客户端转换为绝对路径, 按字面路径执行, * 和 ? 不会被当作通配符
+ * <p>
+ * 每个操作单独返回结果, 单个操作失败不影响其他操作; 只有链接异常时才抛出异常
+ * <p>
+ * 注: sftp 协议只保证同一个文件句柄上的请求按顺序处理, 同一批中的操作可能被服务端并发执行,
+ * 有先后依赖的操作 (如先重命名再获取新路径的属性) 需要分批执行;
+ * 无法打开报文通道时 (如服务端限制了通道数), 或使用的 JSch 无法解析报文通道返回的文件属性时,
+ * 退化为通过 {@link ChannelSftp} 逐个执行
+ * <pre>
+ * List&lt;BatchResult&gt; results = conn.batch()
+ *         .delete("/data/a.txt")
+ *         .rename("/data/b.txt", "/data/c.txt")
+ *         .stat("/data/d.txt")
+ *         .execute();
+ * </pre>
+ * @author meilon
+ * @see SftpConnect#batch()
+ */
+public final class SftpBatch {
+
+    public static final String DELETE = "delete";
+    public static final String RENAME = "rename";
+    public static final String CHMOD = "chmod";
+    public static final String STAT = "stat";
+
+    /**
+     * 默认同时在途的最大请求数
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private final SftpConnect connect;
+
+    private final int maxInFlight;
+
+    private final List<Op> ops = new ArrayList<>();
+
+    SftpBatch(SftpConnect connect, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be greater than 0");
+        }
+        this.connect = connect;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 删除文件
+     * @param path 文件路径, 相对路径基于当前目录
+     * @return this
+     */
+    public SftpBatch delete(String path) {
+        ops.add(new Op(DELETE, path, null, 0));
+        return this;
+    }
+
+    /**
+     * 重命名文件或目录
+     * @param oldPath 原路径, 相对路径基于当前目录
+     * @param newPath 新路径, 相对路径基于当前目录
+     * @return this
+     */
+    public SftpBatch rename(String oldPath, String newPath) {
+        ops.add(new Op(RENAME, oldPath, newPath, 0));
+        return this;
+    }
+
+    /**
+     * 修改文件或目录权限
+     * @param path 路径, 相对路径基于当前目录
+     * @param permissions 权限, 如 0644
+     * @return this
+     */
+    public SftpBatch chmod(String path, int permissions) {
+        ops.add(new Op(CHMOD, path, null, permissions));
+        return this;
+    }
+
+    /**
+     * 获取文件或目录属性, 不跟随符号链接, 与 {@link SftpConnect#getAttrs(String)} 一致
+     * 启用属性缓存时结果会写入缓存
+     * @param path 路径, 相对路径基于当前目录
+     * @return this
+     */
+    public SftpBatch stat(String path) {
+        ops.add(new Op(STAT, path, null, 0));
+        return this;
+    }
+
+    /**
+     * 已添加的操作数
+     * @return 操作数
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * 执行所有操作
+     * 执行后批次被清空, 可以继续添加操作再次执行
+     * @return 每个操作的结果, 顺序与添加顺序一致
+     * @throws SftpException 链接异常时抛出异常
+     */
+    public List<BatchResult> execute() throws SftpException {
+        List<Op> resolved = new ArrayList<>(ops.size());
+        for (Op op : ops) {
+            resolved.add(new Op(op.operation, connect.absolutePath(op.path),
+                    op.target == null ? null : connect.absolutePath(op.target), op.permissions));
+        }
+        ops.clear();
+        return connect.executeBatch(resolved, maxInFlight);
+    }
+
+    /**
+     * 通过报文通道执行, 在途请求达到上限时按添加顺序等待响应
+     */
+    static List<BatchResult> run(SftpPacketChannel channel, List<Op> ops, int maxInFlight) throws SftpException {
+        List<BatchResult> results = new ArrayList<>(ops.size());
+        int[] ids = new int[ops.size()];
+        int sent = 0;
+        for (int done = 0; done < ops.size(); done++) {
+            while (sent < ops.size() && sent - done < maxInFlight) {
+                ids[sent] = ops.get(sent).send(channel);
+                sent++;
+            }
+            SftpResponse response = channel.await(ids[done]);
+            results.add(ops.get(done).result(response.getStatus(), response.getMessage(), response.getAttrs()));
+        }
+        return results;
+    }
+
+    /**
+     * 通过 {@link ChannelSftp} 逐个执行
+     */
+    static List<BatchResult> run(ChannelSftp sftp, List<Op> ops) {
+        List<BatchResult> results = new ArrayList<>(ops.size());
+        for (Op op : ops) {
+            try {
+                results.add(op.result(ChannelSftp.SSH_FX_OK, null, op.apply(sftp)));
+            } catch (SftpException e) {
+                results.add(op.result(e.id, e.getMessage(), null));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 转义 {@link ChannelSftp} 的通配符和转义符
+     */
+    static String quote(String path) {
+        StringBuilder sb = null;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') {
+                if (sb == null) {
+                    sb = new StringBuilder(path.length() + 8).append(path, 0, i);
+                }
+                sb.append('\\');
+            }
+            if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? path : sb.toString();
+    }
+
+    /**
+     * 单个操作, 执行时路径已转换为绝对路径
+     */
+    static final class Op {
+
+        final String operation;
+
+        final String path;
+
+        final String target;
+
+        final int permissions;
+
+        Op(String operation, String path, String target, int permissions) {
+            this.operation = operation;
+            this.path = path;
+            this.target = target;
+            this.permissions = permissions;
+        }
+
+        int send(SftpPacketChannel channel) throws SftpException {
+            switch (operation) {
+                case DELETE:
+                    return channel.sendRemove(path);
+                case RENAME:
+                    return channel.sendRename(path, target);
+                case CHMOD:
+                    return channel.sendChmod(path, permissions);
+                default:
+                    return channel.sendLstat(path);
+            }
+        }
+
+        /**
+         * {@link ChannelSftp} 会把路径中的 * 和 ? 当作通配符展开, 转义后与报文通道一样按字面路径执行
+         */
+        SftpATTRS apply(ChannelSftp sftp) throws SftpException {
+            String quoted = quote(path);
+            switch (operation) {
+                case DELETE:
+                    sftp.rm(quoted);
+                    return null;
+                case RENAME:
+                    sftp.rename(quoted, quote(target));
+                    return null;
+                case CHMOD:
+                    sftp.chmod(permissions, quoted);
+                    return null;
+                default:
+                    return sftp.lstat(quoted);
+            }
+        }
+
+        BatchResult result(int status, String message, SftpATTRS attrs) {
+            return new BatchResult(operation, path, target, status, message, attrs);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package me.meilon.jsftp.core;
+
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.exception.SftpCircuitOpenException;
+import me.meilon.jsftp.core.metrics.SftpMetricsRecorder;
+
+import java.util.function.Supplier;
+
+/**
+ * 同一个 host:port 创建链接的熔断器
+ * <p>
+ * 目标主机宕机时, 每次创建链接都要等到 TCP 和 ssh 连接超时, 借用链接的线程会大量堆积;
+ * 连续创建失败达到阈值后熔断器打开, 冷却时间内借用需要新建链接时直接抛出 {@link SftpCircuitOpenException};
+ * 冷却时间结束后进入半开状态, 只放行一次创建作为探测, 成功则关闭熔断器, 失败则重新打开
+ * <p>
+ * 状态变化会记录日志, 并通过 {@link SftpMetricsRecorder#recordCircuitState(String, String)} 通知
+ * @author meilon
+ * @see me.meilon.jsftp.core.conf.SftpPoolConfig#getCircuitBreakerFailureThreshold()
+ */
+@Slf4j
+public final class SftpCircuitBreaker {
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /**
+         * 正常创建链接
+         */
+        CLOSED,
+        /**
+         * 直接拒绝创建链接
+         */
+        OPEN,
+        /**
+         * 放行一次探测
+         */
+        HALF_OPEN
+    }
+
+    private final String address;
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    private final Supplier<SftpMetricsRecorder> metrics;
+
+    private State state = State.CLOSED;
+
+    private int failures = 0;
+
+    private long openUntil = 0;
+
+    /**
+     * 半开状态下是否已有探测在进行
+     */
+    private boolean probing = false;
+
+    SftpCircuitBreaker(String address, int failureThreshold, long openNanos, Supplier<SftpMetricsRecorder> metrics) {
+        this.address = address;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 获取当前状态
+     * 打开状态的冷却时间结束后, 在下一次创建链接前仍显示为 OPEN
+     * @return 熔断器状态
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 获取熔断器对应的 host:port
+     * @return host:port
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * 当前是否会拒绝创建链接, 不改变状态
+     */
+    synchronized boolean isRejecting() {
+        if (state == State.OPEN) {
+            return System.nanoTime() - openUntil < 0;
+        }
+        return state == State.HALF_OPEN && probing;
+    }
+
+    /**
+     * 创建链接前调用, 熔断器打开时抛出异常
+     * 冷却时间结束后第一个调用者成为探测, 其余调用者在探测结束前继续被拒绝
+     * @param sftpId 指定sftp的唯一id
+     */
+    void acquire(String sftpId) {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (state == State.OPEN && now - openUntil >= 0) {
+                transition(sftpId, State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN && !probing) {
+                probing = true;
+                return;
+            }
+        }
+        throw new SftpCircuitOpenException("circuit open for " + address + ", sftpId: " + sftpId);
+    }
+
+    /**
+     * 创建链接成功
+     */
+    synchronized void onSuccess(String sftpId) {
+        failures = 0;
+        probing = false;
+        if (state != State.CLOSED) {
+            transition(sftpId, State.CLOSED);
+        }
+    }
+
+    /**
+     * 创建链接失败
+     */
+    synchronized void onFailure(String sftpId) {
+        probing = false;
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            openUntil = System.nanoTime() + openNanos;
+            transition(sftpId, State.OPEN);
+        }
+    }
+
+    /**
+     * 放弃探测, 既不算成功也不算失败
+     * 探测线程在连接前就失败时调用 (如配置错误), 让下一个调用者继续探测
+     */
+    synchronized void onAbort() {
+        probing = false;
+    }
+
+    private void transition(String sftpId, State to) {
+        State from = state;
+        state = to;
+        if (to == State.OPEN) {
+            log.warn("circuit {} -> {} for {} after {} failures", from, to, address, failures);
+        }
+        else {
+            log.info("circuit {} -> {} for {}", from, to, address);
+        }
+        metrics.get().recordCircuitState(sftpId, to.name());
+    }
+}
@@ -5,12 +5,24 @@ import com.jcraft.jsch.*;
 import lombok.extern.slf4j.Slf4j;
 import me.meilon.jsftp.core.conf.SftpConnConfig;
 import me.meilon.jsftp.core.conf.SftpMode;
+import me.meilon.jsftp.core.conf.ValidationMode;
 import me.meilon.jsftp.core.exception.SftpRunException;
+import me.meilon.jsftp.core.metrics.SftpMetricsRecorder;
+import me.meilon.jsftp.core.protocol.SftpPacketChannel;
+import me.meilon.jsftp.core.protocol.SftpResponse;
 import me.meilon.jsftp.core.utils.FileUtil;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -24,7 +36,7 @@ public class SftpConnect implements Closeable {
 
     private final ChannelSftp sftp;
 
-    private final Session session;
+    private final SftpSession session;
 
     private final SftpConnConfig config;
 
@@ -35,7 +47,72 @@ public class SftpConnect implements Closeable {
      */
     private final boolean isPooledObject;
 
-    protected SftpConnect(SftpConnConfig config, ChannelSftp sftp, Session session, boolean isPooledObject) {
+    /**
+     * 通道是否已关闭, 保证会话上的通道名额只释放一次
+     */
+    private final AtomicBoolean disconnected = new AtomicBoolean(false);
+
+    /**
+     * 远程文件属性缓存, 同一个 sftpId 的链接共享, 未启用时为 null
+     */
+    private SftpAttrsCache attrsCache;
+
+    /**
+     * 已确认存在的远程目录, 同一个 sftpId 的链接共享, 未启用时为 null
+     */
+    private SftpDirMemo dirMemo;
+
+    /**
+     * 指标记录, 未启用时为 {@link SftpMetricsRecorder#NOOP}
+     */
+    private volatile SftpMetricsRecorder metrics = SftpMetricsRecorder.NOOP;
+
+    /**
+     * 正在执行的 {@link #call(String, SftpCall)} 层数, 链接同一时间只由一个线程使用
+     */
+    private int callDepth = 0;
+
+    /**
+     * 最近一次请求成功的时间, System.nanoTime()
+     */
+    private volatile long lastActivity = System.nanoTime();
+
+    /**
+     * 借出此链接的链接池, 调用 close() 时交还给它; 未从链接池借出时为 null
+     */
+    private volatile SftpPool pool;
+
+    /**
+     * 复制和批量操作复用的报文通道, 首次使用时打开, 随链接一起关闭
+     */
+    private SftpPacketChannel packetChannel;
+
+    /**
+     * 报文通道打开失败 (如服务端限制了通道数) 后, 在此时间之前不再尝试, System.nanoTime()
+     */
+    private long packetChannelRetryAt;
+
+    /**
+     * 链接在会话上为报文通道预留的名额是否空闲
+     * @see SftpSession#CONNECT_CHANNELS
+     */
+    private final AtomicBoolean packetSlotFree = new AtomicBoolean(true);
+
+    /**
+     * 最近一次 {@link #resetDir(String)} 切换的目录, 以及切换后的当前目录
+     * basePath 不是规范路径 (如带有结尾的 / 或符号链接) 时, 用于判断当前目录是否仍是 basePath
+     */
+    private String resetPath;
+
+    private String resetCwd;
+
+    /**
+     * 在线程亲和快速路径中的状态
+     * @see SftpAffinityBag
+     */
+    private final AtomicInteger affinityState = new AtomicInteger(SftpAffinityBag.IN_USE);
+
+    protected SftpConnect(SftpConnConfig config, ChannelSftp sftp, SftpSession session, boolean isPooledObject) {
         this.config = config;
         this.sftp = sftp;
         this.session = session;
@@ -50,19 +127,263 @@ public class SftpConnect implements Closeable {
         return config.getId();
     }
 
+    /**
+     * 获取借出此链接的链接池
+     * @return 链接池, 不是从链接池借出的链接返回 null
+     */
+    public SftpPool getPool() {
+        return pool;
+    }
+
+    void setPool(SftpPool pool) {
+        this.pool = pool;
+    }
+
+    int getAffinityState() {
+        return affinityState.get();
+    }
+
+    void setAffinityState(int state) {
+        affinityState.set(state);
+    }
+
+    boolean casAffinityState(int expect, int update) {
+        return affinityState.compareAndSet(expect, update);
+    }
+
 
     public ChannelSftp getChannelSftp(){
         return sftp;
     }
 
+    /**
+     * 获取远程文件属性缓存
+     * @return 属性缓存, 未启用时返回 null
+     */
+    public SftpAttrsCache getAttrsCache() {
+        return attrsCache;
+    }
+
+    void setAttrsCache(SftpAttrsCache attrsCache) {
+        this.attrsCache = attrsCache;
+    }
+
+    void setDirMemo(SftpDirMemo dirMemo) {
+        this.dirMemo = dirMemo;
+    }
+
+    /**
+     * 获取当前链接使用的指标记录
+     * 直接通过 {@link #getChannelSftp()} 传输文件时, 可以用它补充记录传输字节数
+     * @return 指标记录, 未启用时返回 {@link SftpMetricsRecorder#NOOP}
+     */
+    public SftpMetricsRecorder getMetricsRecorder() {
+        return metrics;
+    }
+
+    void setMetricsRecorder(SftpMetricsRecorder metrics) {
+        this.metrics = metrics == null ? SftpMetricsRecorder.NOOP : metrics;
+    }
+
+    /**
+     * 执行一次 sftp 操作并记录耗时
+     * 未启用指标时直接执行, 不计时;
+     * 在另一个操作内部执行时 (如复制中的读取和改名) 只计入外层操作, 不单独记录
+     * @param operation 操作名
+     * @param call sftp 操作
+     */
+    private <R> R call(String operation, SftpCall<R> call) throws SftpException {
+        SftpMetricsRecorder recorder = metrics;
+        if (recorder == SftpMetricsRecorder.NOOP || callDepth > 0) {
+            R result = call.call();
+            lastActivity = System.nanoTime();
+            return result;
+        }
+        long begin = System.nanoTime();
+        boolean success = false;
+        callDepth++;
+        try {
+            R result = call.call();
+            success = true;
+            return result;
+        } finally {
+            callDepth--;
+            long end = System.nanoTime();
+            if (success) {
+                lastActivity = end;
+            }
+            recorder.recordOperation(getId(), operation, end - begin, success);
+        }
+    }
+
+    /**
+     * 包装上传进度回调, 用于统计上传字节数
+     * 未启用指标时原样返回
+     */
+    private SftpProgressMonitor uploadMonitor(SftpProgressMonitor monitor) {
+        SftpMetricsRecorder recorder = metrics;
+        if (recorder == SftpMetricsRecorder.NOOP) {
+            return monitor;
+        }
+        return new TransferMonitor(recorder, getId(), true, monitor);
+    }
+
+    /**
+     * 包装下载进度回调, 用于统计下载字节数
+     * 未启用指标时原样返回
+     */
+    private SftpProgressMonitor downloadMonitor(SftpProgressMonitor monitor) {
+        SftpMetricsRecorder recorder = metrics;
+        if (recorder == SftpMetricsRecorder.NOOP) {
+            return monitor;
+        }
+        return new TransferMonitor(recorder, getId(), false, monitor);
+    }
+
+    @FunctionalInterface
+    private interface SftpCall<R> {
+        R call() throws SftpException;
+    }
+
+    /**
+     * 失效指定路径的属性缓存
+     * 直接通过 {@link #getChannelSftp()} 修改远程文件后, 需要调用此方法保证缓存一致
+     * @param path 远程路径
+     * @throws SftpException SftpException
+     */
+    public void invalidateAttrs(String path) throws SftpException {
+        if (attrsCache != null) {
+            attrsCache.invalidate(absolutePath(path));
+        }
+    }
+
+    /**
+     * 失效指定路径及其下所有子路径的属性缓存
+     */
+    private void invalidateAttrsTree(String path) throws SftpException {
+        if (attrsCache != null) {
+            attrsCache.invalidateTree(absolutePath(path));
+        }
+    }
+
+
+    /**
+     * 在当前链接的 ssh 会话上打开一个 sftp 报文通道
+     * 用于按偏移量写入, 扩展请求等 {@link ChannelSftp} 不支持的操作
+     * <p>
+     * 优先使用链接为报文通道预留的名额, 预留名额已被占用时使用会话上的空闲名额,
+     * 都没有时抛出异常, 不会让会话上的通道数超过 channelsPerSession;
+     * 注: 报文通道使用完后需要关闭, 关闭时归还名额
+     * @return sftp 报文通道
+     * @throws SftpException 没有空闲的通道名额或打开失败时抛出异常
+     */
+    public SftpPacketChannel openPacketChannel() throws SftpException {
+        Runnable releaseSlot = acquirePacketSlot();
+        if (releaseSlot == null) {
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "no free channel on ssh session for sftp packet channel");
+        }
+        try {
+            return SftpPacketChannel.open(session.getSession(), releaseSlot);
+        } catch (SftpException | RuntimeException e) {
+            releaseSlot.run();
+            throw e;
+        }
+    }
+
+    /**
+     * 为报文通道占用一个通道名额
+     * @return 归还名额的操作, 没有空闲名额时返回 null
+     */
+    private Runnable acquirePacketSlot() {
+        if (packetSlotFree.compareAndSet(true, false)) {
+            return () -> packetSlotFree.set(true);
+        }
+        if (session.tryAcquire(1)) {
+            return () -> session.release(1);
+        }
+        return null;
+    }
+
+    /**
+     * 获取此链接复用的报文通道, 复制, 批量操作和分段上传共用, 避免每次都打开通道并握手
+     * 报文通道占用链接为它预留的通道名额, 随链接一起关闭, 使用者不需要关闭;
+     * 打开失败后的一段时间内直接返回 null, 之后再重新尝试
+     * @return 报文通道, 无法打开时返回 null
+     */
+    public SftpPacketChannel getPacketChannel() {
+        return sharedPacketChannel();
+    }
+
+    private SftpPacketChannel sharedPacketChannel() {
+        if (packetChannel != null && packetChannel.isConnected()) {
+            return packetChannel;
+        }
+        closePacketChannel();
+        if (packetChannelRetryAt != 0 && System.nanoTime() - packetChannelRetryAt < 0) {
+            return null;
+        }
+        try {
+            packetChannel = openPacketChannel();
+            packetChannelRetryAt = 0;
+        } catch (SftpException e) {
+            packetChannelRetryAt = System.nanoTime() + PACKET_CHANNEL_RETRY_NANOS;
+            log.debug("open sftp packet channel failed, use sftp channel instead: {}", e.getMessage());
+            return null;
+        }
+        return packetChannel;
+    }
+
+    /**
+     * 关闭复用的报文通道
+     * 操作中途失败时通道上可能还有未读取的响应, 需要关闭, 下次使用时重新打开
+     * @see #getPacketChannel()
+     */
+    public void closePacketChannel() {
+        if (packetChannel != null) {
+            packetChannel.close();
+            packetChannel = null;
+        }
+    }
 
     /**
      * 检查连接状态
+     * 通道所在的 ssh 会话断开时, 通道同样视为断开
      *
      * @return true: 连接正常  false: 连接断开
      */
     public boolean isConnected() {
-        return sftp.isConnected();
+        return sftp.isConnected() && session.isAlive();
+    }
+
+    /**
+     * 校验链接是否可用
+     * 先检查本地的链接状态; 在 idleNanos 内有过成功请求时直接视为可用, 否则按 mode 发送探测
+     *
+     * @param mode 校验方式
+     * @param idleNanos 不探测的最长空闲时间, 纳秒
+     * @return true: 链接可用  false: 链接不可用
+     */
+    boolean validate(ValidationMode mode, long idleNanos) {
+        if (!isConnected()) {
+            return false;
+        }
+        if (mode == null || mode == ValidationMode.CONNECTED
+                || System.nanoTime() - lastActivity < idleNanos) {
+            return true;
+        }
+        try {
+            if (mode == ValidationMode.KEEPALIVE) {
+                // 不等待响应, 不能证明链接可用, 不更新 lastActivity
+                session.getSession().sendKeepAliveMsg();
+            }
+            else {
+                call("realpath", () -> sftp.realpath("."));
+            }
+            return true;
+        } catch (Exception e) {
+            log.debug("validate {} by {} failed: {}", getId(), mode, e.getMessage());
+            return false;
+        }
     }
 
     /**
@@ -105,18 +426,56 @@ public class SftpConnect implements Closeable {
     }
 
     private static final String NO_SUCH_FILE = "no such file";
+    private static final String COPY_FILE_EXTENSION = "copy-file";
+    private static final String COPY_DATA_EXTENSION = "copy-data";
+    /**
+     * 流式复制时每个链接上同时在途的最大读, 写请求数
+     */
+    private static final int COPY_MAX_IN_FLIGHT = 16;
+    /**
+     * 无法打开报文通道时, 通过 sftp 通道分段复制的每段大小
+     */
+    private static final int COPY_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * 复制中的临时文件后缀
+     */
+    private static final String COPY_TEMP_SUFFIX = ".copying";
+    /**
+     * 替换文件时目标文件的备份后缀
+     */
+    private static final String REPLACE_BACKUP_SUFFIX = ".replacing";
+    /**
+     * 报文通道打开失败后, 再次尝试前的间隔
+     */
+    private static final long PACKET_CHANNEL_RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
     /**
      * 获取远程文件或目录属性
+     * 启用属性缓存时优先从缓存中获取
      * @param path 目标路径
      * @return 文件或目录属性
      * 注: 如果文件或目录不存在则返回 null
      * @throws SftpException SftpException
      */
     public SftpATTRS getAttrs(String path) throws SftpException {
+        if (attrsCache == null) {
+            return lstat(path);
+        }
+        String key = absolutePath(path);
+        SftpAttrsCache.CachedAttrs cached = attrsCache.get(key);
+        if (cached != null) {
+            return cached.attrs;
+        }
+        SftpATTRS attrs = lstat(path);
+        attrsCache.put(key, attrs);
+        return attrs;
+    }
+
+    private SftpATTRS lstat(String path) throws SftpException {
         try {
-            return sftp.lstat(path);
+            return call("lstat", () -> sftp.lstat(path));
         } catch (SftpException e) {
-            if (NO_SUCH_FILE.equalsIgnoreCase(e.getMessage())) {
+            // 不同服务端的错误信息不同, 优先按状态码判断
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE || NO_SUCH_FILE.equalsIgnoreCase(e.getMessage())) {
                 return null;
             }
             throw e;
@@ -125,6 +484,7 @@ public class SftpConnect implements Closeable {
 
     /**
      * 查看当前所处目录
+     * 当前目录由 ChannelSftp 在客户端记录, 随 cd 和 openDir 更新, 不发送请求
      *
      * @return 当前目录字串
      * @throws SftpException SftpException
@@ -140,7 +500,7 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public String getHome() throws SftpException {
-        return sftp.getHome();
+        return call("home", sftp::getHome);
     }
 
     /**
@@ -149,46 +509,158 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void rmdir(String remotePath) throws SftpException{
-        sftp.rmdir(remotePath);
+        call("rmdir", () -> {
+            sftp.rmdir(remotePath);
+            return null;
+        });
+        invalidateAttrsTree(remotePath);
+        if (dirMemo != null) {
+            dirMemo.removeTree(absolutePath(remotePath));
+        }
     }
 
     /**
      * 创建目录
+     * 目录已存在时不做任何操作
      * @param directory 目标路径
      * @throws SftpException SftpException
      */
     public void mkdir(String directory) throws SftpException {
-        if (!isDir(directory)) {
-            sftp.mkdir(directory);
+        String dir = absolutePath(directory);
+        if (dirMemo != null && dirMemo.contains(dir)) {
+            return;
+        }
+        if (!isDir(dir)) {
+            createDir(dir);
+        }
+        else if (dirMemo != null) {
+            dirMemo.add(dir);
         }
     }
 
     /**
      * 创建多级目录
+     * 从最深的一级开始向上查找第一个已存在的目录, 只创建其下缺失的部分;
+     * 已确认存在的目录会记录在同一个 sftpId 共享的目录集合中, 之后不再重复查询;
+     * 记录的目录已被其他客户端删除导致创建失败时, 移除记录后重新查询并创建
      * @param createPath 目标路径
      * @throws SftpException SftpException
      */
     public void mkdirs(String createPath) throws SftpException {
-        if (isDir(createPath)) {
-            return;
-        }
         // mkdir 命令不能创建多级目录, 所以要先根据文件分隔符分割成单个目录组
-        String[] pathArry = createPath.trim().split(FileUtil.DEF_LINE_SEPARATOR);
-        StringBuilder filePath;
-        // 如果是绝对路径会以"/"开头, 此时分割出的数组首位是空串应替换成"/"
-        if (pathArry[0].isEmpty()) {
-            filePath = new StringBuilder(FileUtil.DEF_LINE_SEPARATOR);
-        } else {
-            filePath = new StringBuilder();
-        }
-        for (String pathNode : pathArry) {
-            if (pathNode == null || pathNode.isEmpty()) {
+        List<String> dirs = new ArrayList<>();
+        StringBuilder filePath = new StringBuilder();
+        for (String pathNode : absolutePath(createPath.trim()).split(FileUtil.DEF_LINE_SEPARATOR)) {
+            if (pathNode.isEmpty()) {
                 continue;
             }
-            filePath.append(pathNode);
-            String path = filePath.toString();
-            mkdir(path);
-            filePath.append(FileUtil.DEF_LINE_SEPARATOR);
+            filePath.append(FileUtil.DEF_LINE_SEPARATOR).append(pathNode);
+            dirs.add(filePath.toString());
+        }
+        int exist = findExistingDir(dirs, true);
+        try {
+            for (int i = exist + 1; i < dirs.size(); i++) {
+                createDir(dirs.get(i));
+            }
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE || dirMemo == null || exist < 0) {
+                throw e;
+            }
+            dirMemo.removeTree(dirs.get(exist));
+            invalidateAttrsTree(dirs.get(exist));
+            for (int i = findExistingDir(dirs, false) + 1; i < dirs.size(); i++) {
+                createDir(dirs.get(i));
+            }
+        }
+    }
+
+    /**
+     * 从最深的一级开始向上查找第一个已存在的目录
+     * @param useMemo 是否信任已存在目录的记录
+     * @return 已存在目录的下标, 都不存在时返回 -1 (根目录总是存在)
+     */
+    private int findExistingDir(List<String> dirs, boolean useMemo) throws SftpException {
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            String dir = dirs.get(i);
+            if (useMemo && dirMemo != null && dirMemo.contains(dir)) {
+                return i;
+            }
+            SftpATTRS attrs = getAttrs(dir);
+            if (attrs != null) {
+                if (!attrs.isDir()) {
+                    throw new SftpRunException(dir + " is not directory");
+                }
+                if (dirMemo != null) {
+                    dirMemo.add(dir);
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 重新创建远程文件所在的目录
+     * 父目录记录为已存在, 但已被其他客户端删除时, 上传会因目录不存在 (SSH_FX_NO_SUCH_FILE) 失败;
+     * 此方法移除记录并重新创建父目录, 直接通过 {@link #getChannelSftp()} 上传失败时可以调用后重试
+     * @param remoteFilePath 远程文件路径
+     * @return true: 父目录曾被记录为已存在, 已重新创建, 可以重试; false: 父目录未被记录, 不做任何操作
+     * @throws SftpException 创建目录失败时抛出异常
+     */
+    public boolean recreateParentDir(String remoteFilePath) throws SftpException {
+        if (dirMemo == null) {
+            return false;
+        }
+        String path = absolutePath(remoteFilePath);
+        int index = path.lastIndexOf(FileUtil.DEF_LINE_SEPARATOR);
+        if (index <= 0) {
+            return false;
+        }
+        String parent = path.substring(0, index);
+        if (!dirMemo.contains(parent)) {
+            return false;
+        }
+        dirMemo.removeTree(parent);
+        invalidateAttrsTree(parent);
+        mkdirs(parent);
+        return true;
+    }
+
+    /**
+     * 上传文件, 目标目录因记录过期而不存在时重新创建目录后重试一次
+     * 上传在打开远程文件时就会失败, 此时还没有读取本地数据, 可以安全重试
+     */
+    private <R> R put(String remoteFilePath, SftpCall<R> put) throws SftpException {
+        try {
+            return call("put", put);
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE || !recreateParentDir(remoteFilePath)) {
+                throw e;
+            }
+            return call("put", put);
+        }
+    }
+
+    /**
+     * 创建单级目录
+     * 创建失败时检查目录是否已经存在 (例如被其他链接同时创建), 已存在视为成功
+     */
+    private void createDir(String dir) throws SftpException {
+        try {
+            call("mkdir", () -> {
+                sftp.mkdir(dir);
+                return null;
+            });
+            invalidateAttrs(dir);
+        } catch (SftpException e) {
+            invalidateAttrs(dir);
+            SftpATTRS attrs = getAttrs(dir);
+            if (attrs == null || !attrs.isDir()) {
+                throw e;
+            }
+        }
+        if (dirMemo != null) {
+            dirMemo.add(dir);
         }
     }
 
@@ -199,11 +671,19 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public  void chmod(int permsion, String directory) throws SftpException {
-        sftp.chmod(permsion, directory);
+        call("chmod", () -> {
+            sftp.chmod(permsion, directory);
+            return null;
+        });
+        invalidateAttrs(directory);
     }
 
     public  void chown(int uid, String path) throws SftpException {
-        sftp.chown(uid, path);
+        call("chown", () -> {
+            sftp.chown(uid, path);
+            return null;
+        });
+        invalidateAttrs(path);
     }
 
     /**
@@ -214,7 +694,94 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void rename(String oldpath, String newpath) throws SftpException {
-        sftp.rename(oldpath, newpath);
+        call("rename", () -> {
+            sftp.rename(oldpath, newpath);
+            return null;
+        });
+        invalidateAttrsTree(oldpath);
+        invalidateAttrsTree(newpath);
+        if (dirMemo != null) {
+            dirMemo.removeTree(absolutePath(oldpath));
+        }
+    }
+
+    /**
+     * 创建批量元数据操作, 多个请求同时在途, 整批操作只需要少量往返时间
+     * @see SftpBatch
+     * @return 批量操作
+     */
+    public SftpBatch batch() {
+        return new SftpBatch(this, SftpBatch.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * 创建批量元数据操作
+     * @see SftpBatch
+     * @param maxInFlight 同时在途的最大请求数
+     * @return 批量操作
+     */
+    public SftpBatch batch(int maxInFlight) {
+        return new SftpBatch(this, maxInFlight);
+    }
+
+    /**
+     * 执行批量操作, 并维护属性缓存和已存在目录的记录
+     */
+    List<BatchResult> executeBatch(List<SftpBatch.Op> ops, int maxInFlight) throws SftpException {
+        if (ops.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<BatchResult> results;
+        try {
+            results = call("batch", () -> runBatch(ops, maxInFlight));
+        } finally {
+            for (SftpBatch.Op op : ops) {
+                if (SftpBatch.STAT.equals(op.operation)) {
+                    continue;
+                }
+                if (attrsCache != null) {
+                    attrsCache.invalidateTree(op.path);
+                    if (op.target != null) {
+                        attrsCache.invalidateTree(op.target);
+                    }
+                }
+                if (dirMemo != null && !SftpBatch.CHMOD.equals(op.operation)) {
+                    dirMemo.removeTree(op.path);
+                }
+            }
+        }
+        if (attrsCache != null) {
+            for (BatchResult result : results) {
+                if (!SftpBatch.STAT.equals(result.getOperation())) {
+                    continue;
+                }
+                if (result.isSuccess()) {
+                    attrsCache.put(result.getPath(), result.getAttrs());
+                }
+                else if (result.getStatus() == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    attrsCache.put(result.getPath(), null);
+                }
+            }
+        }
+        return results;
+    }
+
+    private List<BatchResult> runBatch(List<SftpBatch.Op> ops, int maxInFlight) throws SftpException {
+        // 无法解析报文通道返回的文件属性时, 整批通过 sftp 通道执行
+        SftpPacketChannel channel = SftpResponse.isAttrsSupported() ? sharedPacketChannel() : null;
+        if (channel == null) {
+            return SftpBatch.run(sftp, ops);
+        }
+        boolean success = false;
+        try {
+            List<BatchResult> results = SftpBatch.run(channel, ops, maxInFlight);
+            success = true;
+            return results;
+        } finally {
+            if (!success) {
+                closePacketChannel();
+            }
+        }
     }
 
     /**
@@ -223,7 +790,26 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void cd(String path) throws SftpException {
-        sftp.cd(path);
+        call("cd", () -> {
+            sftp.cd(path);
+            return null;
+        });
+    }
+
+    /**
+     * 将当前目录重置为指定目录
+     * 当前目录已经是该目录时不发送请求; 归还链接时调用, 调用方没有切换过目录时归还不需要额外的网络往返
+     * @param path 目标目录
+     * @throws SftpException SftpException
+     */
+    void resetDir(String path) throws SftpException {
+        String cwd = sftp.pwd();
+        if (path.equals(cwd) || (path.equals(resetPath) && cwd.equals(resetCwd))) {
+            return;
+        }
+        cd(path);
+        resetPath = path;
+        resetCwd = sftp.pwd();
     }
 
     /**
@@ -236,10 +822,16 @@ public class SftpConnect implements Closeable {
         if (directory == null || directory.isEmpty()) {
             throw new NullPointerException("directory is null");
         }
-        if (!isDir(directory)) {
+        // 目录通常已经存在, 直接切换, 不存在时再创建, 省去一次 lstat
+        try {
+            cd(directory);
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw e;
+            }
             mkdirs(directory);
+            cd(directory);
         }
-        sftp.cd(directory);
     }
 
     /**
@@ -250,7 +842,11 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void chgrp(Integer gid, String path) throws SftpException {
-        sftp.chgrp(gid, path);
+        call("chgrp", () -> {
+            sftp.chgrp(gid, path);
+            return null;
+        });
+        invalidateAttrs(path);
     }
 
     /**
@@ -261,22 +857,23 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void delete(String deleteFile) throws SftpException {
-        sftp.rm(deleteFile);
+        call("rm", () -> {
+            sftp.rm(deleteFile);
+            return null;
+        });
+        invalidateAttrs(deleteFile);
     }
 
     /**
      * 删除文件
-     * 不能使用全路径删除, 先CD到文件所在目录, 删除完毕后在CD回原目录
+     * 在客户端将目录和文件名拼接为绝对路径, 只发送一次删除请求, 不切换当前目录
      *
-     * @param directory  要删除文件所在目录
+     * @param directory  要删除文件所在目录, 相对路径基于当前目录
      * @param deleteFile 要删除的文件
      * @throws SftpException SftpException
      */
     public void delete(String directory, String deleteFile) throws SftpException {
-        String pwd = pwd();
-        sftp.cd(directory);
-        sftp.rm(deleteFile);
-        sftp.cd(pwd);
+        delete(resolvePath(directory, deleteFile));
     }
 
     /**
@@ -290,8 +887,12 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void uploadFile(String filePath, String remotePath) throws SftpException {
-        remotePath = remoteAbsolutePath(filePath, remotePath);
-        sftp.put(filePath, remotePath);
+        String dst = remoteAbsolutePath(filePath, remotePath);
+        put(dst, () -> {
+            sftp.put(filePath, dst, uploadMonitor(null));
+            return null;
+        });
+        invalidateAttrs(dst);
     }
 
     /**
@@ -307,8 +908,12 @@ public class SftpConnect implements Closeable {
      */
     public void uploadFile(String filePath, String remotePath,
                            SftpMode mode) throws SftpException {
-        remotePath = remoteAbsolutePath(filePath, remotePath);
-        sftp.put(filePath, remotePath, mode.code);
+        String dst = remoteAbsolutePath(filePath, remotePath);
+        put(dst, () -> {
+            sftp.put(filePath, dst, uploadMonitor(null), mode.code);
+            return null;
+        });
+        invalidateAttrs(dst);
     }
 
     /**
@@ -321,8 +926,12 @@ public class SftpConnect implements Closeable {
      */
     public void uploadFile(String filePath, String remotePath,
                            SftpProgressMonitor monitor) throws SftpException {
-        remotePath = remoteAbsolutePath(filePath, remotePath);
-        sftp.put(filePath, remotePath, monitor);
+        String dst = remoteAbsolutePath(filePath, remotePath);
+        put(dst, () -> {
+            sftp.put(filePath, dst, uploadMonitor(monitor));
+            return null;
+        });
+        invalidateAttrs(dst);
     }
 
     /**
@@ -335,7 +944,11 @@ public class SftpConnect implements Closeable {
         if (isDir(remoteFilePath)){
             throw new SftpRunException(remoteFilePath + " is directory");
         }
-        sftp.put(fileIo, remoteFilePath);
+        put(remoteFilePath, () -> {
+            sftp.put(fileIo, remoteFilePath, uploadMonitor(null));
+            return null;
+        });
+        invalidateAttrs(remoteFilePath);
     }
 
 
@@ -352,7 +965,9 @@ public class SftpConnect implements Closeable {
         if (isDir(remoteFilePath)) {
             throw new SftpRunException(remoteFilePath + " is directory");
         }
-        return sftp.put(remoteFilePath);
+        // 写入过程中文件属性持续变化, 提前失效缓存
+        invalidateAttrs(remoteFilePath);
+        return put(remoteFilePath, () -> sftp.put(remoteFilePath, uploadMonitor(null), ChannelSftp.OVERWRITE));
     }
 
     /**
@@ -368,7 +983,11 @@ public class SftpConnect implements Closeable {
         FileInputStream in;
         try {
             in = new FileInputStream(localFile);
-            sftp.put(in, remoteFilePath);
+            put(remoteFilePath, () -> {
+                sftp.put(in, remoteFilePath, uploadMonitor(null));
+                return null;
+            });
+            invalidateAttrs(remoteFilePath);
         } catch (FileNotFoundException e) {
             throw new SftpRunException(e);
         }
@@ -421,7 +1040,10 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public void download(String remoteFilePath, String localFilePath) throws SftpException {
-        sftp.get(remoteFilePath, localFilePath);
+        call("get", () -> {
+            sftp.get(remoteFilePath, localFilePath, downloadMonitor(null));
+            return null;
+        });
     }
 
     /**
@@ -433,7 +1055,20 @@ public class SftpConnect implements Closeable {
      * @throws SftpException SftpException
      */
     public InputStream openFile(String filePath) throws SftpException {
-        return sftp.get(filePath);
+        return call("get", () -> sftp.get(filePath, downloadMonitor(null)));
+    }
+
+    /**
+     * 从指定偏移量开始打开文件, 返回InputStream
+     * 用于分段下载或断点续传
+     *
+     * @param filePath 要打开的文件名
+     * @param offset 开始读取的偏移量
+     * @return io流
+     * @throws SftpException SftpException
+     */
+    public InputStream openFile(String filePath, long offset) throws SftpException {
+        return call("get", () -> sftp.get(filePath, downloadMonitor(null), offset));
     }
 
     /**
@@ -452,7 +1087,10 @@ public class SftpConnect implements Closeable {
             if (!fileDir.exists() && fileDir.mkdirs()) {
                 String remoteFile = FileUtil.unite(remotePath, fileName);
                 String tempFileName = FileUtil.unite(savePath, fileName + suffixPattren);
-                sftp.get(remoteFile, tempFileName);
+                call("get", () -> {
+                    sftp.get(remoteFile, tempFileName, downloadMonitor(null));
+                    return null;
+                });
 
                 File tempFile = new File(tempFileName);
                 File file = new File(FileUtil.unite(savePath, fileName));
@@ -477,7 +1115,7 @@ public class SftpConnect implements Closeable {
         List<String> ftpFileNameList = new ArrayList<>();
 
         if (remotePath != null && !remotePath.isEmpty()) {
-            sftp.ls(remotePath, lsEntry->{
+            listFiles(remotePath, lsEntry->{
                 if (lsEntry == null){
                     return ChannelSftp.LsEntrySelector.BREAK;
                 }
@@ -503,14 +1141,98 @@ public class SftpConnect implements Closeable {
         if (remotePath == null || remotePath.isEmpty()) {
             throw new IllegalAccessError("directory is null!");
         }
-        return sftp.ls(remotePath);
+        return call("ls", () -> sftp.ls(remotePath));
     }
 
     public void listFiles(String remotePath, ChannelSftp.LsEntrySelector selector) throws SftpException {
         if (remotePath == null || remotePath.isEmpty()) {
             throw new IllegalAccessError("directory is null!");
         }
-        sftp.ls(remotePath,selector);
+        call("ls", () -> {
+            sftp.ls(remotePath, selector);
+            return null;
+        });
+    }
+
+    /**
+     * 流式列出指定目录下的文件属性, 不包含 "." 和 ".."
+     * 条目随 READDIR 结果分批返回, 内存占用与目录大小无关, 适合超大目录;
+     * 目录在后台线程中读取, 最多预读 {@link LsEntryIterator#DEFAULT_CAPACITY} 个条目
+     * 注: 流关闭前当前链接被占用, 不能执行其他操作, 即使已经读到末尾也必须使用 try-with-resources 关闭
+     * @see LsEntryIterator
+     *
+     * @param remotePath 要列出的远程目录
+     * @return 文件属性流
+     */
+    public Stream<ChannelSftp.LsEntry> streamFiles(String remotePath) {
+        return streamFiles(remotePath, LsEntryIterator.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 流式列出指定目录下的文件属性, 不包含 "." 和 ".."
+     *
+     * @param remotePath 要列出的远程目录
+     * @param capacity 预读的最大条目数, 0 表示不预读, 取走一个条目后才读取下一个
+     * @return 文件属性流
+     */
+    public Stream<ChannelSftp.LsEntry> streamFiles(String remotePath, int capacity) {
+        if (remotePath == null || remotePath.isEmpty()) {
+            throw new IllegalAccessError("directory is null!");
+        }
+        LsEntryIterator iterator = new LsEntryIterator(this, remotePath, capacity);
+        Spliterator<ChannelSftp.LsEntry> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * 列出指定目录下的前 limit 个文件属性, 不包含 "." 和 "..", 取够后立即终止读取
+     *
+     * @param remotePath 要列出的远程目录
+     * @param limit 最大条目数
+     * @return 文件属性列表
+     * @throws SftpException SftpException
+     */
+    public List<ChannelSftp.LsEntry> listFiles(String remotePath, int limit) throws SftpException {
+        List<ChannelSftp.LsEntry> entries = new ArrayList<>();
+        if (limit <= 0) {
+            return entries;
+        }
+        listFiles(remotePath, lsEntry -> {
+            if (lsEntry == null) {
+                return ChannelSftp.LsEntrySelector.BREAK;
+            }
+            String fileName = lsEntry.getFilename();
+            if (!".".equals(fileName) && !"..".equals(fileName)) {
+                entries.add(lsEntry);
+            }
+            return entries.size() < limit ? ChannelSftp.LsEntrySelector.CONTINUE : ChannelSftp.LsEntrySelector.BREAK;
+        });
+        return entries;
+    }
+
+    /**
+     * 查找指定目录下第一个满足条件的文件, 不包含 "." 和 "..", 找到后立即终止读取
+     *
+     * @param remotePath 要查找的远程目录
+     * @param predicate 匹配条件
+     * @return 第一个满足条件的文件属性, 没有时返回 null
+     * @throws SftpException SftpException
+     */
+    public ChannelSftp.LsEntry findFirst(String remotePath, Predicate<ChannelSftp.LsEntry> predicate) throws SftpException {
+        ChannelSftp.LsEntry[] found = new ChannelSftp.LsEntry[1];
+        listFiles(remotePath, lsEntry -> {
+            if (lsEntry == null) {
+                return ChannelSftp.LsEntrySelector.BREAK;
+            }
+            String fileName = lsEntry.getFilename();
+            if (!".".equals(fileName) && !"..".equals(fileName) && predicate.test(lsEntry)) {
+                found[0] = lsEntry;
+                return ChannelSftp.LsEntrySelector.BREAK;
+            }
+            return ChannelSftp.LsEntrySelector.CONTINUE;
+        });
+        return found[0];
     }
 
     /**
@@ -532,41 +1254,177 @@ public class SftpConnect implements Closeable {
     /**
      * 复制文件
      * 如果指定的目标文件名和原始文件名不同, 复制完成后文件名会改变
+     * <p>
+     * 服务端支持 copy-file 或 copy-data 扩展时直接在服务端复制, 数据不经过网络传输;
+     * 否则边读边写流式复制, 内存占用与文件大小无关;
+     * 先复制到同目录下的临时文件, 完成后再替换目标文件, 复制失败时目标文件保持原样
+     * @see #replaceFile(String, String)
      *
      * @param fromFilePath 原始文件路径, 必须包含文件名
      * @param toFilePath   目标文件路径, 必须包含文件名
      * @throws SftpException SftpException
      */
     public void copyfile(String fromFilePath, String toFilePath) throws SftpException {
-        InputStream nInputStream = null;
-        try(ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-            InputStream tInputStream = this.openFile(fromFilePath)) {
+        if (isDir(toFilePath)){
+            throw new SftpRunException(toFilePath + " is directory");
+        }
+        String from = absolutePath(fromFilePath);
+        String to = absolutePath(toFilePath);
+        try {
+            call("copy", () -> {
+                copy(from, to);
+                return null;
+            });
+        } finally {
+            invalidateAttrs(to);
+        }
+    }
 
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = tInputStream.read(buffer)) > -1 ) {
-                outBuffer.write(buffer, 0, len);
+    private void copy(String from, String to) throws SftpException {
+        String temp = to + COPY_TEMP_SUFFIX;
+        boolean success = false;
+        try {
+            copyData(from, temp);
+            replaceFile(temp, to);
+            success = true;
+        } finally {
+            if (!success) {
+                removeQuietly(temp);
             }
-            outBuffer.flush();
+        }
+    }
 
-            nInputStream = new ByteArrayInputStream(outBuffer.toByteArray());
-            uploadFile(nInputStream, toFilePath);
-        } catch (IOException e) {
-            throw new SftpRunException(e);
+    private void copyData(String from, String to) throws SftpException {
+        SftpPacketChannel channel = sharedPacketChannel();
+        if (channel == null) {
+            copyThroughChannel(from, to);
+            return;
+        }
+        boolean success = false;
+        try {
+            copy(channel, from, to);
+            success = true;
+        } finally {
+            if (!success) {
+                closePacketChannel();
+            }
+        }
+    }
+
+    /**
+     * 先打开源文件再创建目标文件, 源文件不存在时不会创建或截断目标文件
+     */
+    private void copy(SftpPacketChannel channel, String from, String to) throws SftpException {
+        if (channel.hasExtension(COPY_FILE_EXTENSION)) {
+            channel.copyFile(from, to, true);
+            return;
+        }
+        byte[] readHandle = channel.open(from, SftpPacketChannel.SSH_FXF_READ);
+        try {
+            byte[] writeHandle = channel.open(to, SftpPacketChannel.SSH_FXF_WRITE
+                    | SftpPacketChannel.SSH_FXF_CREAT | SftpPacketChannel.SSH_FXF_TRUNC);
+            try {
+                if (channel.hasExtension(COPY_DATA_EXTENSION)) {
+                    channel.copyData(readHandle, 0, 0, writeHandle, 0);
+                }
+                else {
+                    // 读写都在报文通道上, 不经过 sftp 通道
+                    channel.transfer(readHandle, writeHandle, COPY_MAX_IN_FLIGHT);
+                }
+            } finally {
+                channel.close(writeHandle);
+            }
         } finally {
+            channel.close(readHandle);
+        }
+    }
+
+    /**
+     * 用 source 文件替换 target 文件, 用于把写完的临时文件改为最终文件名
+     * <p>
+     * 服务端支持 posix-rename 扩展时只需一次 rename, 原子地覆盖目标文件;
+     * 否则目标文件已存在时, 先把目标文件改名为备份, 再把 source 改为目标文件名, 成功后删除备份, 失败时恢复备份;
+     * 注: 这种情况下替换不是原子的, 两次改名之间其他客户端会短暂地看不到目标文件
+     *
+     * @param source 要改名的文件
+     * @param target 目标文件
+     * @throws SftpException 改名失败时抛出异常, 目标文件保持原样
+     */
+    public void replaceFile(String source, String target) throws SftpException {
+        try {
+            rename(source, target);
+            return;
+        } catch (SftpException e) {
+            // 缓存中可能还是目标文件不存在的旧结果
+            invalidateAttrs(target);
+            if (!isFile(target)) {
+                throw e;
+            }
+        }
+        String backup = target + "." + Long.toHexString(System.nanoTime()) + REPLACE_BACKUP_SUFFIX;
+        rename(target, backup);
+        try {
+            rename(source, target);
+        } catch (SftpException e) {
             try {
-                if (null != nInputStream){
-                    nInputStream.close();
+                rename(backup, target);
+            } catch (SftpException restore) {
+                log.warn("restore {} from {} failed: {}", target, backup, restore.getMessage());
+                e.addSuppressed(restore);
+            }
+            throw e;
+        }
+        removeQuietly(backup);
+    }
+
+    private void removeQuietly(String path) {
+        try {
+            delete(path);
+        } catch (SftpException | RuntimeException e) {
+            log.debug("remove {} failed: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 无法打开报文通道时, 通过当前 sftp 通道分段复制, 不再打开其他通道
+     * 同一个通道上读写的响应会互相干扰, 因此每段先读入有界缓冲区并关闭读取流, 再追加写入目标文件
+     */
+    private void copyThroughChannel(String from, String to) throws SftpException {
+        byte[] buffer = new byte[COPY_CHUNK_SIZE];
+        long offset = 0;
+        while (true) {
+            int length = 0;
+            try (InputStream in = sftp.get(from, null, offset)) {
+                int n;
+                while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > -1) {
+                    length += n;
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new SftpRunException(e);
+            }
+            if (length == 0 && offset > 0) {
+                return;
+            }
+            sftp.put(new ByteArrayInputStream(buffer, 0, length), to, null,
+                    offset == 0 ? ChannelSftp.OVERWRITE : ChannelSftp.APPEND);
+            offset += length;
+            if (length < buffer.length) {
+                return;
             }
         }
     }
 
+    /**
+     * 关闭 sftp 通道
+     * 如果是会话上的最后一个通道, 会同时关闭 ssh 会话
+     */
     void disconnect(){
+        if (!disconnected.compareAndSet(false, true)){
+            return;
+        }
+        closePacketChannel();
         sftp.disconnect();
-        session.disconnect();
+        session.release(SftpSession.CONNECT_CHANNELS);
     }
 
     @Override
@@ -575,6 +1433,28 @@ public class SftpConnect implements Closeable {
     }
 
 
+    /**
+     * 将相对路径转换为基于当前目录的绝对路径
+     * 报文通道没有当前目录, 使用前需要转换
+     */
+    String absolutePath(String path) throws SftpException {
+        if (path.startsWith(FileUtil.DEF_LINE_SEPARATOR)) {
+            return path;
+        }
+        return FileUtil.unite(sftp.pwd(), path);
+    }
+
+    /**
+     * 将目录和文件名拼接为绝对路径, 文件名是绝对路径时直接使用
+     * 当前目录在客户端记录, 不发送请求
+     */
+    private String resolvePath(String directory, String name) throws SftpException {
+        if (name.startsWith(FileUtil.DEF_LINE_SEPARATOR) || directory == null || directory.isEmpty()) {
+            return absolutePath(name);
+        }
+        return absolutePath(FileUtil.unite(directory, name));
+    }
+
     private String remoteAbsolutePath(String filePath, String remotePath) throws SftpException{
         boolean isDir = remotePath.endsWith("/");
         if(isDir || isDir(remotePath)){
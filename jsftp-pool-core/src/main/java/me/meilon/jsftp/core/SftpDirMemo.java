@@ -0,0 +1,56 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.utils.FileUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 已确认存在的远程目录集合
+ * <p>
+ * 同一个 sftpId 的所有池化链接共享, 用于 {@link SftpConnect#mkdirs(String)} 跳过已经确认或创建过的目录;
+ * 容量有上限, 超出后按 LRU 淘汰; 只保存绝对路径;
+ * 通过 {@link SftpConnect} 删除或改名的目录会同步移除; 其他客户端删除的目录在 mkdirs 或上传因目录不存在失败时移除,
+ * 也可以调用 {@link #clear()} 清空
+ * @author meilon
+ */
+final class SftpDirMemo {
+
+    private final Map<String, Boolean> dirs;
+
+    SftpDirMemo(int maxSize) {
+        this.dirs = new LinkedHashMap<String, Boolean>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    synchronized boolean contains(String dir) {
+        return dirs.get(dir) != null;
+    }
+
+    synchronized void add(String dir) {
+        dirs.put(dir, Boolean.TRUE);
+    }
+
+    /**
+     * 移除指定目录及其下所有子目录
+     */
+    synchronized void removeTree(String dir) {
+        String prefix = dir.endsWith(FileUtil.DEF_LINE_SEPARATOR) ? dir : dir + FileUtil.DEF_LINE_SEPARATOR;
+        dirs.remove(dir);
+        Iterator<String> it = dirs.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        dirs.clear();
+    }
+}
@@ -0,0 +1,109 @@
+package me.meilon.jsftp.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 同一个 host:port 同时进行的 ssh 握手数限制
+ * <p>
+ * 负载突增时链接池会在多个线程中同时创建链接, 超过服务端 MaxStartups 的握手会被直接断开, 失败后的重试又会加剧拥塞;
+ * 超出限制的创建线程按到达顺序排队等待; 借用链接的线程在排队期间如果有链接被归还, 可以直接使用归还的链接, 不再创建
+ * @author meilon
+ * @see me.meilon.jsftp.core.conf.SftpPoolConfig#getMaxHandshakesPerHost()
+ */
+final class SftpHandshakeGate {
+
+    private final int maxHandshakes;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /**
+     * 握手名额释放或有链接被归还时通知
+     */
+    private final Condition changed = lock.newCondition();
+
+    private int inFlight = 0;
+
+    SftpHandshakeGate(int maxHandshakes) {
+        this.maxHandshakes = maxHandshakes;
+    }
+
+    /**
+     * 获取一个握手名额
+     * @param timeoutNanos 最长等待时间, 小于 0 表示一直等待
+     * @return true: 获取成功, false: 等待超时
+     */
+    boolean acquire(long timeoutNanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long remaining = timeoutNanos;
+            while (inFlight >= maxHandshakes) {
+                if (timeoutNanos < 0) {
+                    changed.await();
+                }
+                else {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = changed.awaitNanos(remaining);
+                }
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 握手名额是否已经用完
+     */
+    boolean isSaturated() {
+        lock.lock();
+        try {
+            return inFlight >= maxHandshakes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待握手名额释放或有链接被归还
+     * @param timeoutNanos 最长等待时间
+     * @return false: 等待超时
+     */
+    boolean awaitChange(long timeoutNanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (inFlight < maxHandshakes) {
+                return true;
+            }
+            return changed.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 通知等待的线程有链接被归还
+     */
+    void signalReturn() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
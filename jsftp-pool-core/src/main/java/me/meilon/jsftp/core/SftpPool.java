@@ -2,10 +2,32 @@ package me.meilon.jsftp.core;
 
 
 import me.meilon.jsftp.core.conf.SftpConnConfig;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import me.meilon.jsftp.core.exception.SftpCircuitOpenException;
 import me.meilon.jsftp.core.exception.SftpConfigException;
+import me.meilon.jsftp.core.metrics.SftpMetricsRecorder;
+import me.meilon.jsftp.core.utils.ThreadUtil;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 /**
  * sftp 链接池
@@ -13,9 +35,81 @@ import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
  */
 public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
 
+    /**
+     * 启用线程亲和时, 暂存的链接中没有可用链接, 转而从链接池借用的线程数;
+     * 大于 0 时归还的链接直接交还给链接池, 以唤醒在链接池中等待的线程
+     * @see #borrowIdle(String, long)
+     */
+    private final AtomicInteger idleBorrowers = new AtomicInteger();
+
+    /**
+     * 线程亲和的借用快速路径, 未启用时为 null
+     * @see SftpPoolConfig#isThreadAffinity()
+     */
+    private final SftpAffinityBag affinityBag;
+
+    /**
+     * 自动调整容量, 未启用时为 null
+     * @see SftpPoolConfig#isAdaptiveSizing()
+     */
+    private final SftpPoolAutoSizer autoSizer;
 
     protected SftpPool(SftpPooledFactory factory, GenericKeyedObjectPoolConfig<SftpConnect> config) {
         super(factory,config);
+        SftpPoolConfig poolConfig = factory.getSftpPoolConfig();
+        this.affinityBag = poolConfig != null && poolConfig.isThreadAffinity() ? new SftpAffinityBag() : null;
+        this.autoSizer = poolConfig != null && poolConfig.isAdaptiveSizing()
+                ? new SftpPoolAutoSizer(this, factory, poolConfig) : null;
+    }
+
+    /**
+     * 获取自动调整容量的控制器
+     * @return 控制器, 未启用时返回 null
+     */
+    public SftpPoolAutoSizer getAutoSizer() {
+        return autoSizer;
+    }
+
+    /**
+     * 调整每个 key 的容量
+     * 暂存的链接先交还给链接池, 空闲链接超出新容量时立即销毁多出的部分
+     * @param maxTotalPerKey 每个key最大可存在的链接数
+     * @param maxIdlePerKey 每个key最大保持的空闲链接数
+     */
+    void resize(int maxTotalPerKey, int maxIdlePerKey) {
+        setMaxTotalPerKey(maxTotalPerKey);
+        setMaxIdlePerKey(maxIdlePerKey);
+        releaseParked(null);
+        for (String sftpId : getNumActivePerKey().keySet()) {
+            while (getNumIdle(sftpId) > maxIdlePerKey) {
+                SftpConnect connect = pollIdle(sftpId);
+                if (connect == null) {
+                    // 空闲链接已被其他线程借走
+                    break;
+                }
+                try {
+                    invalidateObject(sftpId, connect);
+                } catch (Exception e) {
+                    // 销毁失败的链接同样会从链接池中移除
+                }
+            }
+        }
+    }
+
+    /**
+     * 从空闲队列中取出一个链接, 不新建链接, 不校验
+     * @return 空闲链接, 没有空闲链接时返回 null
+     */
+    private SftpConnect pollIdle(String sftpId) {
+        SftpPooledFactory factory = (SftpPooledFactory) getFactory();
+        factory.setIdleOnly(true);
+        try {
+            return super.borrowObject(sftpId, 0);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            factory.setIdleOnly(false);
+        }
     }
 
     /**
@@ -59,6 +153,24 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
         return borrowObject(conf.getId());
     }
 
+    /**
+     * 获取指定 sftp 的远程文件属性缓存, 可用于查看命中率
+     * @param sftpId 指定sftp的唯一id
+     * @return 属性缓存, 未启用时返回 null
+     */
+    public SftpAttrsCache getAttrsCache(String sftpId) {
+        return ((SftpPooledFactory) getFactory()).getAttrsCache(sftpId);
+    }
+
+    /**
+     * 清空指定 sftp 已确认存在的目录记录
+     * @param sftpId 指定sftp的唯一id
+     * @see SftpPooledFactory#clearKnownDirs(String)
+     */
+    public void clearKnownDirs(String sftpId) {
+        ((SftpPooledFactory) getFactory()).clearKnownDirs(sftpId);
+    }
+
     /**
      * 从连接池中获取一个sftp链接
      * 通过事先定义的 sftpId 获取sftp链接
@@ -69,13 +181,279 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
      */
     @Override
     public SftpConnect borrowObject(String sftpId) throws Exception {
+        return borrowWithin(sftpId, getBlockWhenExhausted() ? getMaxWaitDuration().toMillis() : 0);
+    }
+
+    /**
+     * 从连接池中获取一个sftp链接, 链接池耗尽时最多等待 maxWait, 配置的 maxWait 更短时以配置为准
+     * 用于健康检查等不应长时间占用线程的场景; 新建链接的耗时不受 maxWait 限制
+     * 注意: 使用完后需要自行调用 {@link SftpPool#returnSftp(SftpConnect) } 方法交还
+     * @param sftpId 通过事先定义的 sftpId 获取sftp链接
+     * @param maxWait 链接池耗尽时的最长等待时间
+     * @return sftp链接对象
+     * @throws NoSuchElementException 等待超时时抛出异常
+     */
+    public SftpConnect tryBorrowObject(String sftpId, Duration maxWait) throws Exception {
+        long maxWaitMillis = 0;
+        if (getBlockWhenExhausted()) {
+            long configured = getMaxWaitDuration().toMillis();
+            maxWaitMillis = configured < 0 ? maxWait.toMillis() : Math.min(configured, maxWait.toMillis());
+        }
+        return borrowWithin(sftpId, Math.max(0, maxWaitMillis));
+    }
+
+    /**
+     * @param maxWaitMillis 链接池耗尽时的最长等待时间, 小于 0 表示一直等待
+     */
+    private SftpConnect borrowWithin(String sftpId, long maxWaitMillis) throws Exception {
         SftpPooledFactory factory = (SftpPooledFactory)getFactory();
         SftpConnConfig defConfig = factory.getSftpConnConf(sftpId);
         if (defConfig == null){
             // 如果配置数据不存在或密码有变动则抛出异常
             throw new SftpConfigException("SftpConnConfig is null");
         }
-        return super.borrowObject(sftpId);
+        SftpMetricsRecorder metrics = factory.getMetricsRecorder();
+        if (metrics == SftpMetricsRecorder.NOOP) {
+            return borrow(sftpId, maxWaitMillis);
+        }
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            SftpConnect connect = borrow(sftpId, maxWaitMillis);
+            success = true;
+            return connect;
+        } finally {
+            metrics.recordBorrow(sftpId, System.nanoTime() - begin, success);
+        }
+    }
+
+    private SftpConnect borrow(String sftpId, long maxWaitMillis) throws Exception {
+        SftpConnect connect = pollParked(sftpId);
+        if (connect == null) {
+            checkCircuit(sftpId);
+            awaitHandshake(sftpId, maxWaitMillis);
+            connect = borrowIdle(sftpId, maxWaitMillis);
+            connect.setAffinityState(SftpAffinityBag.IN_USE);
+        }
+        // 记录借出的链接池, 调用 close() 时交还给此链接池
+        connect.setPool(this);
+        return connect;
+    }
+
+    /**
+     * 从暂存的链接中取出一个可用的链接
+     * 暂存期间链接不参与链接池的空闲检测, 取出时按链接池配置校验, 校验失败的链接直接销毁
+     * @return 可用的链接, 未启用线程亲和或没有可用链接时返回 null
+     */
+    private SftpConnect pollParked(String sftpId) {
+        if (affinityBag == null) {
+            return null;
+        }
+        SftpPooledFactory factory = (SftpPooledFactory) getFactory();
+        SftpConnect connect;
+        while ((connect = affinityBag.poll(sftpId)) != null) {
+            if (factory.validateConnect(sftpId, connect)) {
+                factory.activateConnect(connect);
+                return connect;
+            }
+            affinityBag.remove(connect);
+            try {
+                invalidateObject(sftpId, connect);
+            } catch (Exception e) {
+                // 链接已经失效, 销毁失败不影响继续借用
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从链接池的空闲队列借用链接
+     * 启用线程亲和时先登记再取一次暂存的链接: 登记之前暂存的链接在这里取出,
+     * 登记之后归还的链接不再暂存而是交还给链接池, 在链接池中等待的线程总能被归还的链接唤醒
+     * @param maxWaitMillis 最长等待时间, 小于 0 表示一直等待
+     */
+    private SftpConnect borrowIdle(String sftpId, long maxWaitMillis) throws Exception {
+        if (affinityBag == null) {
+            return borrowPooled(sftpId, maxWaitMillis);
+        }
+        idleBorrowers.incrementAndGet();
+        try {
+            SftpConnect connect = pollParked(sftpId);
+            if (connect != null) {
+                return connect;
+            }
+            return borrowPooled(sftpId, maxWaitMillis);
+        } finally {
+            idleBorrowers.decrementAndGet();
+        }
+    }
+
+    private SftpConnect borrowPooled(String sftpId, long maxWaitMillis) throws Exception {
+        return maxWaitMillis < 0 ? super.borrowObject(sftpId) : super.borrowObject(sftpId, maxWaitMillis);
+    }
+
+    /**
+     * 没有空闲链接且熔断器打开时直接失败, 不进入等待
+     * 有空闲链接时仍然借出, 由校验决定链接是否可用
+     */
+    private void checkCircuit(String sftpId) {
+        SftpCircuitBreaker breaker = ((SftpPooledFactory) getFactory()).getCircuitBreaker(sftpId);
+        if (breaker != null && getNumIdle(sftpId) == 0 && breaker.isRejecting()) {
+            throw new SftpCircuitOpenException("circuit open for " + breaker.getAddress() + ", sftpId: " + sftpId);
+        }
+    }
+
+    /**
+     * 需要新建链接但握手名额已用完时, 等待握手名额或其他线程归还链接
+     * 等到归还的链接后由 borrowObject 直接取用, 不再新建; 等待超时后交给 borrowObject 按原有逻辑处理
+     */
+    private void awaitHandshake(String sftpId, long maxWaitMillis) throws InterruptedException {
+        SftpHandshakeGate gate = ((SftpPooledFactory) getFactory()).getHandshakeGate(sftpId);
+        if (gate == null) {
+            return;
+        }
+        long maxWait = maxWaitMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        long deadline = System.nanoTime() + maxWait;
+        while (getNumIdle(sftpId) == 0 && canCreate(sftpId) && gate.isSaturated()) {
+            long remaining = maxWait < 0 ? TimeUnit.SECONDS.toNanos(1) : deadline - System.nanoTime();
+            if (remaining <= 0 || !gate.awaitChange(remaining)) {
+                return;
+            }
+        }
+    }
+
+    private boolean canCreate(String sftpId) {
+        int maxTotalPerKey = getMaxTotalPerKey();
+        return maxTotalPerKey < 0 || getNumActive(sftpId) + getNumIdle(sftpId) < maxTotalPerKey;
+    }
+
+    /**
+     * 预热链接池
+     * 为每个已配置的 sftpId 建立 minIdlePerKey 个空闲链接, 未设置 minIdlePerKey 时不做任何操作
+     * @return 每个 sftpId 的预热结果
+     * @see #prewarm(Collection, int)
+     */
+    public Map<String, PrewarmResult> prewarm() {
+        SftpPooledFactory factory = (SftpPooledFactory) getFactory();
+        return prewarm(factory.getSftpIds(), getMinIdlePerKey());
+    }
+
+    /**
+     * 预热指定的 sftpId, 至少保留一个空闲链接
+     * @param sftpId 指定sftp的唯一id
+     * @return 预热结果
+     */
+    public PrewarmResult prewarm(String sftpId) {
+        return prewarm(Collections.singleton(sftpId), Math.max(getMinIdlePerKey(), 1)).get(sftpId);
+    }
+
+    /**
+     * 并行预热链接池
+     * <p>
+     * 为每个 sftpId 补足 idlePerKey 个空闲链接, 不超过 maxTotalPerKey;
+     * 每个 host:port 有各自的任务队列和不超过 {@link SftpPoolConfig#getPrewarmParallelismPerHost()} 个工作线程,
+     * 不同 host:port 之间互不等待; 方法在全部完成后返回, 失败不会抛出异常, 记录在结果中
+     * @param sftpIds 要预热的 sftpId
+     * @param idlePerKey 每个 sftpId 的目标空闲链接数
+     * @return 每个 sftpId 的预热结果
+     */
+    public Map<String, PrewarmResult> prewarm(Collection<String> sftpIds, int idlePerKey) {
+        SftpPooledFactory factory = (SftpPooledFactory) getFactory();
+        SftpPoolConfig poolConfig = factory.getSftpPoolConfig();
+        int perHost = Math.max(1, poolConfig == null ? 1 : poolConfig.getPrewarmParallelismPerHost());
+        Map<String, Integer> requested = new LinkedHashMap<>();
+        int tasks = 0;
+        for (String sftpId : sftpIds) {
+            SftpConnConfig conf = factory.getSftpConnConf(sftpId);
+            if (conf == null) {
+                continue;
+            }
+            int need = idlePerKey - getNumIdle(sftpId);
+            int maxTotalPerKey = getMaxTotalPerKey();
+            if (maxTotalPerKey > 0) {
+                need = Math.min(need, maxTotalPerKey - getNumActive(sftpId) - getNumIdle(sftpId));
+            }
+            need = Math.max(need, 0);
+            requested.put(sftpId, need);
+            tasks += need;
+        }
+        Map<String, PrewarmResult> results = new LinkedHashMap<>();
+        if (tasks == 0) {
+            requested.forEach((id, need) -> results.put(id, new PrewarmResult(id, 0, 0, 0, null)));
+            return results;
+        }
+        // 按 host:port 分组排队, 每组由各自的工作线程取出执行
+        Map<String, Queue<FutureTask<Long>>> hostQueues = new LinkedHashMap<>();
+        Map<String, List<Future<Long>>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : requested.entrySet()) {
+            String sftpId = entry.getKey();
+            SftpConnConfig conf = factory.getSftpConnConf(sftpId);
+            Queue<FutureTask<Long>> queue = hostQueues.computeIfAbsent(conf.getHost() + ":" + conf.getPort(),
+                    k -> new ConcurrentLinkedQueue<>());
+            List<Future<Long>> list = new ArrayList<>(entry.getValue());
+            for (int i = 0; i < entry.getValue(); i++) {
+                FutureTask<Long> task = new FutureTask<>(() -> {
+                    addObject(sftpId);
+                    return System.currentTimeMillis();
+                });
+                queue.add(task);
+                list.add(task);
+            }
+            futures.put(sftpId, list);
+        }
+        int threads = 0;
+        for (Queue<FutureTask<Long>> queue : hostQueues.values()) {
+            threads += Math.min(perHost, queue.size());
+        }
+        ExecutorService executor = ThreadUtil.newExecutor("jsftp-prewarm", threads, getThreadMode());
+        long begin = System.currentTimeMillis();
+        try {
+            for (Queue<FutureTask<Long>> queue : hostQueues.values()) {
+                for (int i = Math.min(perHost, queue.size()); i > 0; i--) {
+                    executor.execute(() -> {
+                        FutureTask<Long> task;
+                        while ((task = queue.poll()) != null) {
+                            task.run();
+                        }
+                    });
+                }
+            }
+            for (Map.Entry<String, List<Future<Long>>> entry : futures.entrySet()) {
+                String sftpId = entry.getKey();
+                int created = 0;
+                long end = begin;
+                Throwable error = null;
+                for (Future<Long> future : entry.getValue()) {
+                    try {
+                        end = Math.max(end, future.get());
+                        created++;
+                    } catch (ExecutionException e) {
+                        if (error == null) {
+                            error = e.getCause();
+                        }
+                    }
+                }
+                if (error != null) {
+                    end = System.currentTimeMillis();
+                }
+                results.put(sftpId, new PrewarmResult(sftpId, entry.getValue().size(), created, end - begin, error));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * 获取异步及并行传输任务使用的线程类型
+     * @return 线程类型
+     * @see SftpPoolConfig#getThreadMode()
+     */
+    public ThreadMode getThreadMode() {
+        SftpPoolConfig config = ((SftpPooledFactory) getFactory()).getSftpPoolConfig();
+        return config == null ? ThreadMode.PLATFORM : config.getThreadMode();
     }
 
     /**
@@ -87,6 +465,9 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
      */
     @Override
     public void  invalidateObject(String sftpId, SftpConnect sftpConnect) throws Exception {
+        if (affinityBag != null && sftpConnect != null) {
+            affinityBag.remove(sftpConnect);
+        }
         if (sftpConnect != null && sftpConnect.isConnected()){
             sftpConnect.disconnect();
         }
@@ -96,6 +477,9 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
     public void invalidateSftp(SftpConnect sftpConnect) throws Exception {
         if (sftpConnect != null && sftpConnect.isConnected()){
             sftpConnect.disconnect();
+            if (affinityBag != null) {
+                affinityBag.remove(sftpConnect);
+            }
             super.invalidateObject(sftpConnect.getId(),sftpConnect);
         }
     }
@@ -108,6 +492,71 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
         returnObject(sftpConnect.getId(), sftpConnect);
     }
 
+    /**
+     * 归还链接, 并通知等待握手名额的借用线程
+     * @param sftpId 指定sftp的唯一id
+     * @param sftpConnect sftp链接对象
+     */
+    @Override
+    public void returnObject(String sftpId, SftpConnect sftpConnect) {
+        if (affinityBag != null && park(sftpId, sftpConnect)) {
+            return;
+        }
+        super.returnObject(sftpId, sftpConnect);
+        SftpHandshakeGate gate = ((SftpPooledFactory) getFactory()).getHandshakeGate(sftpId);
+        if (gate != null) {
+            gate.signalReturn();
+        }
+    }
+
+    /**
+     * 将归还的链接暂存在当前线程中, 不交还给链接池
+     * 有线程正在从链接池借用, 链接已断开或配置了自动关闭时不暂存
+     * @return true: 已暂存, false: 需要交还给链接池
+     */
+    private boolean park(String sftpId, SftpConnect sftpConnect) {
+        SftpPooledFactory factory = (SftpPooledFactory) getFactory();
+        SftpConnConfig config = factory.getSftpConnConf(sftpId);
+        if (hasIdleBorrowers() || config == null || config.isAutoDisconnect() || !sftpConnect.isConnected()) {
+            affinityBag.remove(sftpConnect);
+            return false;
+        }
+        try {
+            factory.passivateConnect(sftpId, sftpConnect);
+        } catch (Exception e) {
+            // 交给链接池按原有逻辑处理
+            affinityBag.remove(sftpConnect);
+            return false;
+        }
+        if (!affinityBag.park(sftpConnect)) {
+            affinityBag.remove(sftpConnect);
+            return false;
+        }
+        // 暂存期间可能有线程开始从链接池借用, 能取回时交还给链接池
+        if (hasIdleBorrowers() && sftpConnect.casAffinityState(SftpAffinityBag.PARKED, SftpAffinityBag.IN_USE)) {
+            affinityBag.remove(sftpConnect);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean hasIdleBorrowers() {
+        return idleBorrowers.get() > 0 || getNumWaiters() > 0;
+    }
+
+    /**
+     * 将暂存的链接交还给链接池
+     * @param sftpId 指定sftp的唯一id, 为 null 时交还所有 sftp 的链接
+     */
+    private void releaseParked(String sftpId) {
+        if (affinityBag == null) {
+            return;
+        }
+        for (SftpConnect connect : affinityBag.drain(sftpId)) {
+            super.returnObject(connect.getId(), connect);
+        }
+    }
+
     /**
      * 获取活跃数, 也就是被从连接池中出来的sftp链接
      * @return 活跃状态的 sftp链接数
@@ -127,6 +576,42 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
         return super.getNumActive(sftpId);
     }
 
+    /**
+     * 获取暂存在线程亲和快速路径中的链接数
+     * 暂存的链接对链接池来说是借出状态, 包含在 {@link #getNumActive()} 中, 但没有被使用
+     * @return 暂存的sftp链接数, 未启用线程亲和时为 0
+     * @see SftpPoolConfig#isThreadAffinity()
+     */
+    public int getNumParked() {
+        return affinityBag == null ? 0 : affinityBag.count(null);
+    }
+
+    /**
+     * 获取指定 Id 暂存在线程亲和快速路径中的链接数
+     * @param sftpId 指定sftp的唯一id
+     * @return 暂存的sftp链接数, 未启用线程亲和时为 0
+     */
+    public int getNumParked(final String sftpId) {
+        return affinityBag == null ? 0 : affinityBag.count(sftpId);
+    }
+
+    /**
+     * 获取正在使用的链接数, 即活跃数中去掉暂存的链接
+     * @return 正在使用的sftp链接数
+     */
+    public int getNumInUse() {
+        return Math.max(0, getNumActive() - getNumParked());
+    }
+
+    /**
+     * 获取指定 Id 正在使用的链接数, 即活跃数中去掉暂存的链接
+     * @param sftpId 指定sftp的唯一id
+     * @return 正在使用的sftp链接数
+     */
+    public int getNumInUse(final String sftpId) {
+        return Math.max(0, getNumActive(sftpId) - getNumParked(sftpId));
+    }
+
     /**
      * 获取空闲数
      * @return 空闲状态的sftp链接数
@@ -146,11 +631,22 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
         return super.getNumIdle(sftpId);
     }
 
+    /**
+     * 执行一次空闲检测
+     * 暂存的链接先交还给链接池, 与其他空闲链接一起参与检测和回收
+     */
+    @Override
+    public void evict() throws Exception {
+        releaseParked(null);
+        super.evict();
+    }
+
     /**
      * 清除池中闲置的对象
      */
     @Override
     public void clear(){
+        releaseParked(null);
         super.clear();
     }
 
@@ -160,6 +656,7 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
      */
     @Override
     public void clear(String sftpId){
+        releaseParked(sftpId);
         super.clear(sftpId);
     }
 
@@ -168,6 +665,10 @@ public class SftpPool extends GenericKeyedObjectPool<String, SftpConnect> {
      */
     @Override
     public void close(){
+        if (autoSizer != null) {
+            autoSizer.close();
+        }
+        releaseParked(null);
         super.close();
     }
     
@@ -0,0 +1,175 @@
+package me.meilon.jsftp.core;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import me.meilon.jsftp.core.metrics.LatencyWindow;
+import me.meilon.jsftp.core.metrics.RecentLatencyRecorder;
+import me.meilon.jsftp.core.utils.ThreadUtil;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据借用等待时间和创建链接失败率自动调整链接池容量
+ * <p>
+ * 每个周期检查每个 sftpId 在本周期内的借用次数, 借用等待时间 p95, 等待线程数和创建链接的失败率:
+ * <ul>
+ *     <li>grow: 某个 sftpId 有线程在等待空闲链接, 或链接已全部借出且 p95 超过目标时, 调高 maxTotalPerKey 和 maxIdlePerKey</li>
+ *     <li>backoff: 没有需要扩容的 sftpId, 但有 sftpId 创建链接的失败率达到一半时, 调低 maxTotalPerKey, 不再向服务端追加链接</li>
+ *     <li>shrink: 所有 sftpId 都空闲或等待时间远低于目标时, 调低 maxIdlePerKey (不低于当前借出的链接数), 借出的链接较少时同时调低 maxTotalPerKey</li>
+ * </ul>
+ * commons-pool2 的容量配置对所有 key 生效, 因此调整的是整个链接池的每 key 容量, 由需求最大的 sftpId 驱动;
+ * maxTotalPerKey 不低于配置值, 不高于 adaptiveMaxTotalPerKey; maxIdlePerKey 不低于 minIdlePerKey
+ * @author meilon
+ * @see SftpPoolConfig#isAdaptiveSizing()
+ */
+@Slf4j
+public final class SftpPoolAutoSizer implements Closeable {
+
+    public static final String GROW = "grow";
+    public static final String SHRINK = "shrink";
+    public static final String BACKOFF = "backoff";
+
+    private final SftpPool pool;
+
+    private final SftpPooledFactory factory;
+
+    private final RecentLatencyRecorder latency = new RecentLatencyRecorder();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int minTotalPerKey;
+
+    private final int maxTotalPerKey;
+
+    private final int minIdlePerKey;
+
+    private final long targetNanos;
+
+    /**
+     * 上个周期结束时的累计次数, 按 sftpId 分组
+     */
+    private final Map<String, long[]> lastCounts = new HashMap<>();
+
+    /**
+     * 最近一次调整
+     */
+    @Getter
+    private volatile String lastDecision;
+
+    /**
+     * 最近一次调整的时间, System.currentTimeMillis(), 没有调整过时为 0
+     */
+    @Getter
+    private volatile long lastDecisionTime;
+
+    SftpPoolAutoSizer(SftpPool pool, SftpPooledFactory factory, SftpPoolConfig config) {
+        this.pool = pool;
+        this.factory = factory;
+        this.minTotalPerKey = Math.max(1, config.getMaxTotalPerKey());
+        this.maxTotalPerKey = Math.max(minTotalPerKey, config.getAdaptiveMaxTotalPerKey());
+        this.minIdlePerKey = Math.max(0, config.getMinIdlePerKey());
+        this.targetNanos = config.getAdaptiveBorrowWaitTarget().toNanos();
+        factory.addMetricsRecorder(latency);
+        long interval = Math.max(1, config.getAdaptiveInterval().toMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadUtil.newThreadFactory("jsftp-autosizer", ThreadMode.PLATFORM));
+        scheduler.scheduleWithFixedDelay(this::safeAdjust, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void safeAdjust() {
+        try {
+            adjust();
+        } catch (Exception e) {
+            log.warn("adjust sftp pool size failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 执行一次检查和调整
+     */
+    synchronized void adjust() {
+        int total = pool.getMaxTotalPerKey();
+        int idle = pool.getMaxIdlePerKey();
+        Map<String, Integer> waiters = pool.getNumWaitersByKey();
+        String growId = null;
+        String backoffId = null;
+        boolean quiet = true;
+        // 还没有借用记录时可能正在创建第一批链接, 不缩容
+        boolean seen = false;
+        int peakActive = 0;
+        for (String sftpId : factory.getSftpIds()) {
+            LatencyWindow.Snapshot borrow = latency.getBorrowLatency(sftpId);
+            LatencyWindow.Snapshot create = latency.getCreateLatency(sftpId);
+            long failures = latency.getCreateFailureCount(sftpId);
+            long[] last = lastCounts.computeIfAbsent(sftpId, k -> new long[3]);
+            long borrows = borrow.getCount() - last[0];
+            long creates = create.getCount() - last[1];
+            long failed = failures - last[2];
+            last[0] = borrow.getCount();
+            last[1] = create.getCount();
+            last[2] = failures;
+            seen |= borrow.getCount() > 0;
+
+            int active = pool.getNumInUse(sftpId);
+            int waiting = waiters.getOrDefault(sftpId, 0);
+            peakActive = Math.max(peakActive, active);
+            double p95Nanos = borrow.getP95() * 1_000_000;
+            boolean failing = creates >= 2 && failed * 2 >= creates;
+            // 链接未全部借出时等待时间长是创建链接慢, 扩容没有帮助
+            boolean queueing = waiting > 0 || (borrows > 0 && p95Nanos > targetNanos && active >= total);
+            if (queueing && !failing) {
+                growId = sftpId;
+            }
+            if (failing && backoffId == null) {
+                backoffId = sftpId;
+            }
+            if (waiting > 0 || (borrows > 0 && p95Nanos * 4 > targetNanos)) {
+                quiet = false;
+            }
+        }
+        int step = Math.max(1, total / 4);
+        if (growId != null && total < maxTotalPerKey) {
+            int newTotal = Math.min(maxTotalPerKey, total + step);
+            apply(growId, GROW, newTotal, Math.min(newTotal, idle + step));
+        }
+        else if (growId == null && backoffId != null && total > minTotalPerKey) {
+            int newTotal = Math.max(minTotalPerKey, total - step);
+            apply(backoffId, BACKOFF, newTotal, Math.min(newTotal, idle));
+        }
+        else if (growId == null && backoffId == null && quiet && seen
+                && (idle > minIdlePerKey || total > minTotalPerKey)) {
+            int newTotal = peakActive * 2 < total ? Math.max(minTotalPerKey, total - step) : total;
+            // 不低于当前借出的链接数, 避免归还时直接销毁仍在使用的链接
+            int newIdle = Math.min(Math.min(newTotal, idle), Math.max(Math.max(minIdlePerKey, peakActive), idle - step));
+            if (newTotal != total || newIdle != idle) {
+                apply(null, SHRINK, newTotal, newIdle);
+            }
+        }
+    }
+
+    private void apply(String sftpId, String decision, int newTotal, int newIdle) {
+        int total = pool.getMaxTotalPerKey();
+        int idle = pool.getMaxIdlePerKey();
+        pool.resize(newTotal, newIdle);
+        lastDecision = decision;
+        lastDecisionTime = System.currentTimeMillis();
+        log.info("sftp pool {} by {}: maxTotalPerKey {} -> {}, maxIdlePerKey {} -> {}",
+                decision, sftpId == null ? "all" : sftpId, total, newTotal, idle, newIdle);
+        factory.getMetricsRecorder().recordResize(sftpId == null ? "all" : sftpId, decision, newTotal, newIdle);
+    }
+
+    /**
+     * 停止自动调整, 已调整的容量保持不变
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -4,16 +4,25 @@ import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
 import lombok.extern.slf4j.Slf4j;
 import me.meilon.jsftp.core.conf.SftpConnConfig;
 import me.meilon.jsftp.core.conf.SftpPoolConfig;
 import me.meilon.jsftp.core.exception.SftpConfigException;
+import me.meilon.jsftp.core.exception.SftpConnectException;
+import me.meilon.jsftp.core.metrics.CompositeMetricsRecorder;
+import me.meilon.jsftp.core.metrics.SftpMetricsRecorder;
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectState;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -40,9 +49,44 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
      */
     private SftpPoolConfig sftpPoolConfig;
     /**
-     * sftp 连接池
+     * sftp 连接池, 每个工厂独立持有一个
      */
-    private volatile static SftpPool pool;
+    private volatile SftpPool pool;
+    /**
+     * 共享的 ssh 会话, 按 sftpId 分组
+     * 仅在每个会话可打开多个通道时使用
+     * @see SftpPoolConfig#getChannelsPerSession()
+     */
+    private final Map<String, List<SftpSession>> sessionMap = new ConcurrentHashMap<>();
+    /**
+     * 远程文件属性缓存, 按 sftpId 分组
+     * @see SftpPoolConfig#getAttrsCacheSize()
+     */
+    private final Map<String, SftpAttrsCache> attrsCacheMap = new ConcurrentHashMap<>();
+    /**
+     * 已确认存在的远程目录, 按 sftpId 分组
+     * @see SftpPoolConfig#getKnownDirsSize()
+     */
+    private final Map<String, SftpDirMemo> dirMemoMap = new ConcurrentHashMap<>();
+    /**
+     * 指标记录, 未设置时不记录
+     */
+    private volatile SftpMetricsRecorder metricsRecorder = SftpMetricsRecorder.NOOP;
+    /**
+     * ssh 握手并发限制, 按 host:port 分组
+     * @see SftpPoolConfig#getMaxHandshakesPerHost()
+     */
+    private final Map<String, SftpHandshakeGate> handshakeGates = new ConcurrentHashMap<>();
+    /**
+     * 创建链接的熔断器, 按 host:port 分组
+     * @see SftpPoolConfig#getCircuitBreakerFailureThreshold()
+     */
+    private final Map<String, SftpCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    /**
+     * 当前线程只从空闲队列取出链接, 不新建链接也不校验, 用于裁剪多余的空闲链接
+     * @see SftpPool#resize(int, int)
+     */
+    private final ThreadLocal<Boolean> idleOnly = new ThreadLocal<>();
 
 
     public SftpPooledFactory(int size){
@@ -91,6 +135,21 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
     private static SftpConnect createConnect(String host, Integer port,
                                             String user, String password,
                                             String id, boolean isPooled) throws JSchException {
+        return createConnect(openSession(host, port, user, password), host, port, user, password, id, isPooled);
+    }
+
+    private static SftpConnect createConnect(Session jschSession, String host, Integer port,
+                                            String user, String password,
+                                            String id, boolean isPooled) throws JSchException {
+        SftpSession session = new SftpSession(jschSession, SftpSession.CONNECT_CHANNELS, null);
+        session.tryAcquire(SftpSession.CONNECT_CHANNELS);
+        ChannelSftp channel = session.openSftpChannel();
+        SftpConnConfig conf = new SftpConnConfig(host, port, user, password, id);
+        return new SftpConnect(conf, channel, session, isPooled);
+    }
+
+    private static Session openSession(String host, Integer port,
+                                       String user, String password) throws JSchException {
         JSch jsch = new JSch();
         Properties sshConfig = new Properties();
         sshConfig.put("StrictHostKeyChecking", "no");
@@ -98,10 +157,169 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
         session.setPassword(password);
         session.setConfig(sshConfig);
         session.connect();
-        ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
-        channel.connect();
-        SftpConnConfig conf = new SftpConnConfig(host, port, user, password, id);
-        return new SftpConnect(conf, channel, session, isPooled);
+        return session;
+    }
+
+    /**
+     * 建立 ssh 会话, 同一个 host:port 同时进行的握手数受 maxHandshakesPerHost 限制
+     * 超出限制时按到达顺序等待, 最长等待 maxWait
+     */
+    private Session openGatedSession(SftpConnConfig conf) throws JSchException {
+        SftpHandshakeGate gate = getHandshakeGate(conf.getId());
+        if (gate == null) {
+            return openSession(conf.getHost(), conf.getPort(), conf.getUserName(), conf.getPassword());
+        }
+        long maxWait = sftpPoolConfig.isBlockWhenExhausted() ? sftpPoolConfig.getMaxWaitTime().toNanos() : 0;
+        try {
+            // 本地排队超时不是目标主机的问题, 不抛出 JSchException, 避免计入熔断
+            if (!gate.acquire(maxWait)) {
+                throw new SftpConnectException("timeout waiting for handshake to " + conf.getHost() + ":" + conf.getPort());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SftpConnectException("interrupted waiting for handshake to " + conf.getHost() + ":" + conf.getPort(), e);
+        }
+        try {
+            return openSession(conf.getHost(), conf.getPort(), conf.getUserName(), conf.getPassword());
+        } finally {
+            gate.release();
+        }
+    }
+
+    void setIdleOnly(boolean value) {
+        if (value) {
+            idleOnly.set(Boolean.TRUE);
+        }
+        else {
+            idleOnly.remove();
+        }
+    }
+
+    private boolean isIdleOnly() {
+        return idleOnly.get() != null;
+    }
+
+    /**
+     * 获取指定 sftp 所在 host:port 的握手并发限制
+     * @param sftpId 指定sftp的唯一id
+     * @return 握手并发限制, 未启用时返回 null
+     */
+    SftpHandshakeGate getHandshakeGate(String sftpId) {
+        int max = sftpPoolConfig == null ? 0 : sftpPoolConfig.getMaxHandshakesPerHost();
+        SftpConnConfig conf = connConfigMap.get(sftpId);
+        if (max <= 0 || conf == null) {
+            return null;
+        }
+        return handshakeGates.computeIfAbsent(conf.getHost() + ":" + conf.getPort(), k -> new SftpHandshakeGate(max));
+    }
+
+    /**
+     * 获取指定 sftp 所在 host:port 的熔断器
+     * @param sftpId 指定sftp的唯一id
+     * @return 熔断器, 未启用时返回 null
+     */
+    public SftpCircuitBreaker getCircuitBreaker(String sftpId) {
+        int threshold = sftpPoolConfig == null ? 0 : sftpPoolConfig.getCircuitBreakerFailureThreshold();
+        SftpConnConfig conf = connConfigMap.get(sftpId);
+        if (threshold <= 0 || conf == null) {
+            return null;
+        }
+        return circuitBreakers.computeIfAbsent(conf.getHost() + ":" + conf.getPort(),
+                k -> new SftpCircuitBreaker(k, threshold, sftpPoolConfig.getCircuitBreakerOpenTime().toNanos(),
+                        this::getMetricsRecorder));
+    }
+
+    /**
+     * 在共享会话上创建 sftp 链接
+     * 优先使用已有会话上的空闲通道名额, 没有可用会话时新建一个会话
+     * @param conf sftp链接配置
+     * @param channelsPerSession 每个会话上最多打开的通道数
+     * @return sftp 链接
+     * @throws JSchException sftp连接失败时抛出异常
+     */
+    private SftpConnect createSharedConnect(SftpConnConfig conf, int channelsPerSession) throws JSchException {
+        String sftpId = conf.getId();
+        List<SftpSession> sessions = sessionMap.computeIfAbsent(sftpId, k -> new ArrayList<>());
+        SftpSession session = null;
+        synchronized (sessions) {
+            for (SftpSession s : sessions) {
+                if (s.tryAcquire(SftpSession.CONNECT_CHANNELS)) {
+                    session = s;
+                    break;
+                }
+            }
+        }
+        if (session == null) {
+            // 建立会话比较耗时, 不在锁内执行
+            session = new SftpSession(openGatedSession(conf), channelsPerSession, sessions);
+            session.tryAcquire(SftpSession.CONNECT_CHANNELS);
+            synchronized (sessions) {
+                sessions.add(session);
+            }
+            log.debug("open shared session {}, sessions {}", sftpId, sessions.size());
+        }
+        else {
+            try {
+                return new SftpConnect(conf, session.openSftpChannel(), session, true);
+            } catch (JSchException e) {
+                if (!session.isAlive()) {
+                    throw e;
+                }
+                // 会话正常但服务端拒绝打开通道 (如 MaxSessions 小于 channelsPerSession), 不是目标主机的问题, 不计入熔断
+                throw new SftpConnectException("open sftp channel on shared session " + sftpId + " failed", e);
+            }
+        }
+        ChannelSftp channel = session.openSftpChannel();
+        return new SftpConnect(conf, channel, session, true);
+    }
+
+    /**
+     * 获取指定 sftp 每个会话上最多打开的通道数
+     * 优先使用链接配置, 未配置时使用链接池配置
+     * @param conf sftp链接配置
+     * @return 每个会话上最多打开的通道数
+     */
+    private int getChannelsPerSession(SftpConnConfig conf) {
+        if (conf.getChannelsPerSession() > 0) {
+            return conf.getChannelsPerSession();
+        }
+        if (sftpPoolConfig != null) {
+            return sftpPoolConfig.getChannelsPerSession();
+        }
+        return 1;
+    }
+
+    /**
+     * 获取指定 sftp 的远程文件属性缓存, 不存在时创建
+     * @param sftpId 指定sftp的唯一id
+     * @return 属性缓存, 未启用时返回 null
+     */
+    public SftpAttrsCache getAttrsCache(String sftpId) {
+        if (sftpPoolConfig == null || sftpPoolConfig.getAttrsCacheSize() <= 0) {
+            return null;
+        }
+        return attrsCacheMap.computeIfAbsent(sftpId,
+                k -> new SftpAttrsCache(sftpPoolConfig.getAttrsCacheSize(), sftpPoolConfig.getAttrsCacheTtl()));
+    }
+
+    private SftpDirMemo getDirMemo(String sftpId) {
+        int size = sftpPoolConfig == null ? SftpPoolConfig.DEFAULT_KNOWN_DIRS_SIZE : sftpPoolConfig.getKnownDirsSize();
+        if (size <= 0) {
+            return null;
+        }
+        return dirMemoMap.computeIfAbsent(sftpId, k -> new SftpDirMemo(size));
+    }
+
+    /**
+     * 清空指定 sftp 已确认存在的目录记录
+     * 其他客户端删除了远程目录后, 可以调用此方法使 mkdirs 重新检查目录
+     * @param sftpId 指定sftp的唯一id
+     */
+    public void clearKnownDirs(String sftpId) {
+        SftpDirMemo memo = dirMemoMap.get(sftpId);
+        if (memo != null) {
+            memo.clear();
+        }
     }
 
 
@@ -109,29 +327,31 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
      * 通过sftp连接池工厂关闭 sftp链接
      * 此方法会判断sftp链接是否纳管到了连接池
      * 如果没有则直接关闭
-     * 如果有则交还给连接池
+     * 如果有则交还给借出它的连接池
      * @param sftpConnect sftp链接对象
      */
     public static void closeSftp(SftpConnect sftpConnect){
         if (sftpConnect == null){
             return;
         }
-        if (!sftpConnect.isPooledObject() || pool == null || sftpConnect.getId() == null){
+        SftpPool origin = sftpConnect.getPool();
+        if (!sftpConnect.isPooledObject() || origin == null || sftpConnect.getId() == null){
             sftpConnect.disconnect();
             return;
         }
-        pool.returnSftp(sftpConnect);
+        origin.returnSftp(sftpConnect);
     }
 
     /**
-     * 单例模式创建 sftp 链接池
+     * 获取此工厂的 sftp 链接池, 首次调用时创建
      * 如果在创建 工厂的时候已经设置了连接池配置则使用设置的连接池配置
      * 如果没有设置则使用默认值
+     * 每个工厂持有独立的链接池, 可以用多个工厂分别配置, 隔离不同类型的流量
      * @return sftp链接池
      */
     public SftpPool getSftpPool(){
         if (pool == null){
-            synchronized (SftpPool.class){
+            synchronized (this){
                 if (pool == null){
                     if (this.sftpPoolConfig == null){
                         log.info("use def SftpPoolConfig");
@@ -144,6 +364,51 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
         return pool;
     }
 
+    /**
+     * 设置指标记录
+     * 已创建的链接在下次借出时生效
+     * @param metricsRecorder 指标记录, 为 null 时不记录
+     */
+    public synchronized void setMetricsRecorder(SftpMetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder == null ? SftpMetricsRecorder.NOOP : metricsRecorder;
+    }
+
+    /**
+     * 追加一个指标记录, 与已设置的指标记录同时生效
+     * @param metricsRecorder 指标记录
+     */
+    public synchronized void addMetricsRecorder(SftpMetricsRecorder metricsRecorder) {
+        if (metricsRecorder == null || metricsRecorder == SftpMetricsRecorder.NOOP) {
+            return;
+        }
+        SftpMetricsRecorder current = this.metricsRecorder;
+        if (current == SftpMetricsRecorder.NOOP) {
+            this.metricsRecorder = metricsRecorder;
+        }
+        else if (current instanceof CompositeMetricsRecorder) {
+            this.metricsRecorder = ((CompositeMetricsRecorder) current).with(metricsRecorder);
+        }
+        else {
+            this.metricsRecorder = new CompositeMetricsRecorder(current, metricsRecorder);
+        }
+    }
+
+    /**
+     * 获取指标记录
+     * @return 指标记录, 未设置时返回 {@link SftpMetricsRecorder#NOOP}
+     */
+    public SftpMetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * 获取链接池配置
+     * @return 链接池配置, 未设置且尚未创建链接池时返回 null
+     */
+    public SftpPoolConfig getSftpPoolConfig() {
+        return sftpPoolConfig;
+    }
+
     /**
      * 生成一个 sftp 链接配置对象
      * @param host sftp服务ip
@@ -240,6 +505,14 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
         connConfigMap.putAll(configMap);
     }
 
+    /**
+     * 获取所有已配置的 sftpId
+     * @return sftpId 集合, 不可修改
+     */
+    public Set<String> getSftpIds(){
+        return Collections.unmodifiableSet(connConfigMap.keySet());
+    }
+
     /**
      * 根据 id 获取 sftp链接配置
      * @param sftpId 指定sftp的唯一id
@@ -258,11 +531,49 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
      */
     @Override
     public SftpConnect create(String sftpId) throws Exception {
+        if (isIdleOnly()) {
+            throw new NoSuchElementException("no idle object, sftpId: " + sftpId);
+        }
         SftpConnConfig conf = connConfigMap.get(sftpId);
         if (conf == null){
             throw new SftpConfigException("get sftpConfig is null! ");
         }
-        SftpConnect connect = createConnect(conf.getHost(), conf.getPort(), conf.getUserName(), conf.getPassword(), sftpId, true);
+        SftpCircuitBreaker breaker = getCircuitBreaker(sftpId);
+        if (breaker != null) {
+            breaker.acquire(sftpId);
+        }
+        SftpMetricsRecorder metrics = metricsRecorder;
+        long begin = System.nanoTime();
+        SftpConnect connect;
+        try {
+            int channelsPerSession = getChannelsPerSession(conf);
+            if (channelsPerSession > 1) {
+                connect = createSharedConnect(conf, channelsPerSession);
+            }
+            else {
+                connect = createConnect(openGatedSession(conf), conf.getHost(), conf.getPort(),
+                        conf.getUserName(), conf.getPassword(), sftpId, true);
+            }
+        } catch (Exception e) {
+            metrics.recordCreate(sftpId, System.nanoTime() - begin, false);
+            if (breaker != null) {
+                // 只有连接目标主机失败才计入熔断
+                if (e instanceof JSchException) {
+                    breaker.onFailure(sftpId);
+                }
+                else {
+                    breaker.onAbort();
+                }
+            }
+            throw e;
+        }
+        if (breaker != null) {
+            breaker.onSuccess(sftpId);
+        }
+        metrics.recordCreate(sftpId, System.nanoTime() - begin, true);
+        connect.setMetricsRecorder(metrics);
+        connect.setAttrsCache(getAttrsCache(sftpId));
+        connect.setDirMemo(getDirMemo(sftpId));
         // 如果没有设置 homePath, 则根据初始 pwd 设置
         String homePath = conf.getBasePath();
         if (homePath == null){
@@ -290,6 +601,7 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
      * 此外用户从连接池获取一个链接时,也会检测有效性,确保不能将"无效"的链接输出给调用者;
      * 当用户使用完毕将链接归还到 Pool时,仍然会检测对象的有效性.
      * 所谓有效性,就是此"对象"的状态是否符合预期,是否可以对调用者直接使用;
+     * 校验方式见 {@link SftpPoolConfig#getValidationMode()}, 最近有过成功请求的链接不发送探测请求
      *
      * @param sftpId 指定sftp的唯一id
      * @param p 池化对象
@@ -297,6 +609,9 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
      */
     @Override
     public boolean validateObject(String sftpId, PooledObject<SftpConnect> p) {
+        if (isIdleOnly()) {
+            return true;
+        }
         boolean res = false;
         if (p != null){
             SftpConnConfig config = connConfigMap.get(sftpId);
@@ -306,7 +621,10 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
             }
             SftpConnect bean = p.getObject();
             if (bean != null){
-                res = bean.isConnected();
+                res = validateConnect(sftpId, bean);
+            }
+            else {
+                metricsRecorder.recordValidationFailure(sftpId);
             }
             log.debug("validateSftp {} {}={}, NumActive {}, NumIdle {}", p.getState(), sftpId, res,
                     pool.getNumActive(sftpId), pool.getNumIdle(sftpId));
@@ -314,6 +632,27 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
         return res;
     }
 
+    /**
+     * 按链接池配置校验 sftp 链接, 校验失败时记录指标
+     * @param sftpId 指定sftp的唯一id
+     * @param conn sftp链接对象
+     * @return true 链接有效, false 链接无效
+     */
+    boolean validateConnect(String sftpId, SftpConnect conn) {
+        boolean res;
+        if (sftpPoolConfig == null) {
+            res = conn.isConnected();
+        }
+        else {
+            res = conn.validate(sftpPoolConfig.getValidationMode(),
+                    sftpPoolConfig.getValidationIdleTime().toNanos());
+        }
+        if (!res) {
+            metricsRecorder.recordValidationFailure(sftpId);
+        }
+        return res;
+    }
+
     /**
      * 销毁 sftp 链接
      * 如果对象池中检测到某个"对象"idle的时间超时,
@@ -330,7 +669,9 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
         if (p != null){
             SftpConnect sftp = p.getObject();
             if (sftp != null){
+                long begin = System.nanoTime();
                 sftp.disconnect();
+                metricsRecorder.recordDestroy(sftpId, System.nanoTime() - begin);
             }
             log.debug("destroySftp {}, NumActive {}, NumIdle {}",
                     sftpId, pool.getNumActive(sftpId), pool.getNumIdle(sftpId));
@@ -341,6 +682,7 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
     /**
      * 激活
      * 当用户从链接池中取出一个 sftp 链接时会调用此方法
+     * 同步最新的指标记录设置
      *
      * @param sftpId 指定sftp的唯一id
      * @param p 池化对象
@@ -349,9 +691,14 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
     @Override
     public void activateObject(String sftpId, PooledObject<SftpConnect> p)
             throws Exception {
+        activateConnect(p.getObject());
         super.activateObject(sftpId, p);
     }
 
+    void activateConnect(SftpConnect conn) {
+        conn.setMetricsRecorder(metricsRecorder);
+    }
+
     /**
      * "钝化"对象
      * 当用户"归还对象"时, 链接池会调用此方法
@@ -364,14 +711,24 @@ public final class SftpPooledFactory extends BaseKeyedPooledObjectFactory<String
     @Override
     public void passivateObject(String sftpId, PooledObject<SftpConnect> p)
             throws Exception {
-        SftpConnect conn = p.getObject();
+        passivateConnect(sftpId, p.getObject());
+        log.debug("passivateObject {}", sftpId);
+        super.passivateObject(sftpId, p);
+    }
+
+    /**
+     * 将 sftp 链接的当前目录重置为 basePath
+     * 当前目录没有变化时不发送请求
+     * @param sftpId 指定sftp的唯一id
+     * @param conn sftp链接对象
+     * @throws SftpException 切换目录失败时抛出异常
+     */
+    void passivateConnect(String sftpId, SftpConnect conn) throws SftpException {
         SftpConnConfig config = connConfigMap.get(sftpId);
         String homePath = config.getBasePath();
         if (homePath != null){
-            conn.cd(homePath);
+            conn.resetDir(homePath);
         }
-        log.debug("passivateObject {}", sftpId);
-        super.passivateObject(sftpId, p);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.util.List;
+
+/**
+ * ssh 会话
+ * <p>
+ * 一个会话上可以打开多个 sftp 通道, 由多个 {@link SftpConnect} 共享,
+ * 以减少 TCP 链接, 密钥交换和登录认证的次数;
+ * 每个链接占用 {@link #CONNECT_CHANNELS} 个通道名额: 一个 sftp 通道, 以及为复制, 批量操作和分段上传预留的报文通道,
+ * 会话上实际打开的通道数不会超过名额, 不会触发服务端的 MaxSessions 限制;
+ * 会话上最后一个通道关闭时会话随之关闭;
+ * 会话断开后所有使用此会话的通道都会被视为无效
+ * @author meilon
+ */
+final class SftpSession {
+
+    /**
+     * 每个链接占用的通道名额
+     * @see SftpConnect#openPacketChannel()
+     */
+    static final int CONNECT_CHANNELS = 2;
+
+    private final Session session;
+
+    /**
+     * 此会话上最多可打开的通道数
+     */
+    private final int maxChannels;
+
+    /**
+     * 当前已打开的通道数
+     */
+    private int channels = 0;
+
+    /**
+     * 会话是否已损坏, 损坏的会话不再分配新通道
+     */
+    private volatile boolean broken = false;
+
+    /**
+     * 持有此会话的共享会话列表, 会话关闭时从中移除
+     * 不共享的会话为 null
+     */
+    private final List<SftpSession> registry;
+
+    SftpSession(Session session, int maxChannels, List<SftpSession> registry) {
+        this.session = session;
+        this.maxChannels = Math.max(CONNECT_CHANNELS, maxChannels);
+        this.registry = registry;
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * 会话是否可用
+     * @return true: 会话正常, false: 会话已断开或已损坏
+     */
+    boolean isAlive() {
+        if (broken) {
+            return false;
+        }
+        if (!session.isConnected()) {
+            broken = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记会话已损坏
+     * 之后所有使用此会话的通道在校验时都会失败
+     */
+    void markBroken() {
+        broken = true;
+    }
+
+    /**
+     * 尝试在此会话上占用通道名额
+     * @param count 占用的名额数, 新建链接时为 {@link #CONNECT_CHANNELS}
+     * @return true: 占用成功, false: 会话不可用或剩余名额不足
+     */
+    synchronized boolean tryAcquire(int count) {
+        if (channels + count > maxChannels || !isAlive()) {
+            return false;
+        }
+        channels += count;
+        return true;
+    }
+
+    /**
+     * 在已为链接占用的名额上打开一个 sftp 通道
+     * 打开失败时会释放链接占用的名额
+     * @return sftp 通道
+     * @throws JSchException 打开通道失败时抛出异常
+     */
+    ChannelSftp openSftpChannel() throws JSchException {
+        try {
+            ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect();
+            return channel;
+        } catch (JSchException e) {
+            if (!session.isConnected()) {
+                markBroken();
+            }
+            release(CONNECT_CHANNELS);
+            throw e;
+        }
+    }
+
+    /**
+     * 释放通道名额
+     * 最后一个名额释放后关闭会话
+     * @param count 释放的名额数
+     */
+    void release(int count) {
+        boolean last;
+        synchronized (this) {
+            channels -= count;
+            last = channels <= 0;
+            if (last) {
+                // 在锁内标记, 防止关闭过程中再被其他线程占用
+                broken = true;
+            }
+        }
+        if (last) {
+            close();
+        }
+    }
+
+    private void close() {
+        if (registry != null) {
+            synchronized (registry) {
+                registry.remove(this);
+            }
+        }
+        session.disconnect();
+    }
+}
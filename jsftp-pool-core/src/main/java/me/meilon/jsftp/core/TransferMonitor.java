@@ -0,0 +1,55 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.SftpProgressMonitor;
+import me.meilon.jsftp.core.metrics.SftpMetricsRecorder;
+
+/**
+ * 统计传输字节数的进度回调
+ * 传输结束时将字节数写入指标, 同时转发给调用者的进度回调
+ * @author meilon
+ */
+final class TransferMonitor implements SftpProgressMonitor {
+
+    private final SftpMetricsRecorder metrics;
+
+    private final String sftpId;
+
+    private final boolean upload;
+
+    private final SftpProgressMonitor delegate;
+
+    private long bytes = 0;
+
+    TransferMonitor(SftpMetricsRecorder metrics, String sftpId, boolean upload, SftpProgressMonitor delegate) {
+        this.metrics = metrics;
+        this.sftpId = sftpId;
+        this.upload = upload;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void init(int op, String src, String dest, long max) {
+        if (delegate != null) {
+            delegate.init(op, src, dest, max);
+        }
+    }
+
+    @Override
+    public boolean count(long count) {
+        bytes += count;
+        return delegate == null || delegate.count(count);
+    }
+
+    @Override
+    public void end() {
+        if (upload) {
+            metrics.recordUpload(sftpId, bytes);
+        }
+        else {
+            metrics.recordDownload(sftpId, bytes);
+        }
+        if (delegate != null) {
+            delegate.end();
+        }
+    }
+}
@@ -38,6 +38,13 @@ public class SftpConnConfig {
      */
     private boolean autoDisconnect = false;
 
+    /**
+     * 每个 ssh 会话上最多打开的通道数, 每个链接占用 2 个通道
+     * 小于 1 时使用链接池的配置 {@link SftpPoolConfig#getChannelsPerSession()}
+     * 默认 0
+     */
+    private int channelsPerSession = 0;
+
     public SftpConnConfig(String host, int port, String userName, String password) {
         this(host,port,userName,password,null);
     }
@@ -96,6 +103,14 @@ public class SftpConnConfig {
         this.autoDisconnect = autoDisconnect;
     }
 
+    public int getChannelsPerSession() {
+        return channelsPerSession;
+    }
+
+    public void setChannelsPerSession(int channelsPerSession) {
+        this.channelsPerSession = channelsPerSession;
+    }
+
     @Override
     public String toString() {
         return "SftpConnConfig{" +
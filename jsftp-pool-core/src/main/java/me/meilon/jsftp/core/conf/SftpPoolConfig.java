@@ -21,6 +21,8 @@ import java.time.Duration;
 @Setter
 public class SftpPoolConfig {
 
+    public static final int DEFAULT_KNOWN_DIRS_SIZE = 0;
+
     /**
      * 连接池放池对象的方式，
      * true：放在空闲队列最前面，
@@ -175,6 +177,126 @@ public class SftpPoolConfig {
      */
     private int maxTotal = GenericKeyedObjectPoolConfig.DEFAULT_MAX_TOTAL;
 
+    /**
+     * 每个 ssh 会话上最多打开的通道数;
+     * 大于 1 时同一个 key 的多个 sftp 链接会共享 ssh 会话,
+     * 减少 TCP 链接, 密钥交换和登录认证的次数, 避免触发服务端的 MaxSessions/MaxStartups 限制;
+     * 每个链接占用 2 个通道: sftp 通道和复制, 批量操作使用的报文通道, 如设为 10 时每个会话上最多 5 个链接;
+     * 注意不要超过服务端的 MaxSessions 配置 (OpenSSH 默认 10)
+     * 可通过 {@link SftpConnConfig#setChannelsPerSession(int)} 针对单个 sftp 单独设置
+     * 默认 1, 即每个链接独占一个会话
+     */
+    private int channelsPerSession = 1;
+
+    /**
+     * 远程文件属性缓存的最大条目数, 每个 sftpId 单独一个缓存;
+     * 启用后 isDir/isFile/isExist 等方法优先读缓存, 减少 lstat 请求;
+     * 设为 0 表示不启用
+     * 默认 0
+     * @see me.meilon.jsftp.core.SftpAttrsCache
+     */
+    private int attrsCacheSize = 0;
+
+    /**
+     * 远程文件属性缓存的过期时间;
+     * 其他客户端对文件的修改在此时间内可能不可见
+     * 默认 5 秒
+     */
+    private Duration attrsCacheTtl = Duration.ofSeconds(5);
+
+    /**
+     * mkdirs 记录已确认存在的远程目录的最大数量, 每个 sftpId 单独记录;
+     * 记录过的目录不再查询服务端, 记录不会过期; 其他客户端删除了记录的目录时,
+     * mkdirs 和上传会在目录不存在时移除记录并重新创建; 设为 0 表示不记录
+     * 默认 0
+     */
+    private int knownDirsSize = DEFAULT_KNOWN_DIRS_SIZE;
+
+    /**
+     * 并行传输任务使用的线程类型;
+     * 设为 {@link ThreadMode#VIRTUAL} 时使用虚拟线程 (JDK 21 及以上), 运行环境不支持时退回平台线程
+     * 默认 {@link ThreadMode#PLATFORM}
+     */
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+    /**
+     * 借出, 归还和空闲检测时校验链接的方式;
+     * 需要可靠地发现半开的链接时可设为 {@link ValidationMode#REALPATH}, 空闲超过 validationIdleTime 的链接校验时多一次往返
+     * 默认 {@link ValidationMode#CONNECTED}, 只检查本地的链接状态
+     */
+    private ValidationMode validationMode = ValidationMode.CONNECTED;
+
+    /**
+     * 链接在此时间内有过成功的请求时, 校验只检查本地状态, 不发送探测请求;
+     * 设为 0 表示每次校验都探测
+     * 默认 30 秒
+     */
+    private Duration validationIdleTime = Duration.ofSeconds(30);
+
+    /**
+     * 预热链接池时每个 host:port 同时建立的最大链接数, 避免触发服务端的 MaxStartups 限制
+     * 默认 4
+     * @see me.meilon.jsftp.core.SftpPool#prewarm()
+     */
+    private int prewarmParallelismPerHost = 4;
+
+    /**
+     * 同一个 host:port 同时进行的最大 ssh 握手数;
+     * 超出的创建请求按到达顺序等待, 等待期间如果有链接被归还, 借用方直接使用归还的链接;
+     * 启用时应小于服务端的 MaxStartups 配置 (OpenSSH 默认 10);
+     * 默认 0, 不限制
+     */
+    private int maxHandshakesPerHost = 0;
+
+    /**
+     * 是否启用线程亲和的借用快速路径;
+     * 启用后归还的链接暂存在归还线程中, 同一线程再次借用时直接取回, 不经过链接池的空闲队列;
+     * 暂存的链接对链接池来说仍是借出状态, 单独统计为暂存数, 再次借出时校验;
+     * 调整容量和每次空闲检测前暂存的链接会交还给链接池
+     * 默认 false
+     */
+    private boolean threadAffinity = false;
+
+    /**
+     * 是否根据借用等待时间和创建链接失败率自动调整 maxTotalPerKey 和 maxIdlePerKey;
+     * maxTotalPerKey 在配置值和 adaptiveMaxTotalPerKey 之间调整, maxIdlePerKey 不低于 minIdlePerKey
+     * 默认 false
+     * @see me.meilon.jsftp.core.SftpPoolAutoSizer
+     */
+    private boolean adaptiveSizing = false;
+
+    /**
+     * 自动调整时每个 key 最大可存在的链接数上限
+     * 默认 32
+     */
+    private int adaptiveMaxTotalPerKey = 32;
+
+    /**
+     * 自动调整的目标借用等待时间, 借用等待时间 p95 超过此值且链接已全部借出时扩容
+     * 默认 100 毫秒
+     */
+    private Duration adaptiveBorrowWaitTarget = Duration.ofMillis(100);
+
+    /**
+     * 自动调整的检查周期
+     * 默认 10 秒
+     */
+    private Duration adaptiveInterval = Duration.ofSeconds(10);
+
+    /**
+     * 同一个 host:port 连续创建链接失败多少次后打开熔断器, 冷却时间内借用需要新建链接时直接失败;
+     * 设为大于 0 的值 (如 5) 启用熔断, 启用后目标主机不可达时借用抛出 SftpCircuitOpenException, 不再等待建立链接超时
+     * 默认 0, 不启用
+     * @see me.meilon.jsftp.core.SftpCircuitBreaker
+     */
+    private int circuitBreakerFailureThreshold = 0;
+
+    /**
+     * 熔断器打开后的冷却时间, 结束后放行一次创建作为探测
+     * 默认 30 秒
+     */
+    private Duration circuitBreakerOpenTime = Duration.ofSeconds(30);
+
 
     public static Builder builder() {
         return new Builder();
@@ -285,6 +407,86 @@ public class SftpPoolConfig {
             return this;
         }
 
+        public Builder setChannelsPerSession(int channelsPerSession) {
+            config.setChannelsPerSession(channelsPerSession);
+            return this;
+        }
+
+        public Builder setAttrsCacheSize(int attrsCacheSize) {
+            config.setAttrsCacheSize(attrsCacheSize);
+            return this;
+        }
+
+        public Builder setAttrsCacheTtlMillis(long attrsCacheTtlMillis) {
+            config.setAttrsCacheTtl(Duration.ofMillis(attrsCacheTtlMillis));
+            return this;
+        }
+
+        public Builder setKnownDirsSize(int knownDirsSize) {
+            config.setKnownDirsSize(knownDirsSize);
+            return this;
+        }
+
+        public Builder setThreadMode(ThreadMode threadMode) {
+            config.setThreadMode(threadMode);
+            return this;
+        }
+
+        public Builder setValidationMode(ValidationMode validationMode) {
+            config.setValidationMode(validationMode);
+            return this;
+        }
+
+        public Builder setValidationIdleTimeMillis(long validationIdleTimeMillis) {
+            config.setValidationIdleTime(Duration.ofMillis(validationIdleTimeMillis));
+            return this;
+        }
+
+        public Builder setPrewarmParallelismPerHost(int prewarmParallelismPerHost) {
+            config.setPrewarmParallelismPerHost(prewarmParallelismPerHost);
+            return this;
+        }
+
+        public Builder setMaxHandshakesPerHost(int maxHandshakesPerHost) {
+            config.setMaxHandshakesPerHost(maxHandshakesPerHost);
+            return this;
+        }
+
+        public Builder setThreadAffinity(boolean threadAffinity) {
+            config.setThreadAffinity(threadAffinity);
+            return this;
+        }
+
+        public Builder setAdaptiveSizing(boolean adaptiveSizing) {
+            config.setAdaptiveSizing(adaptiveSizing);
+            return this;
+        }
+
+        public Builder setAdaptiveMaxTotalPerKey(int adaptiveMaxTotalPerKey) {
+            config.setAdaptiveMaxTotalPerKey(adaptiveMaxTotalPerKey);
+            return this;
+        }
+
+        public Builder setAdaptiveBorrowWaitTargetMillis(long adaptiveBorrowWaitTargetMillis) {
+            config.setAdaptiveBorrowWaitTarget(Duration.ofMillis(adaptiveBorrowWaitTargetMillis));
+            return this;
+        }
+
+        public Builder setAdaptiveIntervalMillis(long adaptiveIntervalMillis) {
+            config.setAdaptiveInterval(Duration.ofMillis(adaptiveIntervalMillis));
+            return this;
+        }
+
+        public Builder setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+            config.setCircuitBreakerFailureThreshold(circuitBreakerFailureThreshold);
+            return this;
+        }
+
+        public Builder setCircuitBreakerOpenTimeMillis(long circuitBreakerOpenTimeMillis) {
+            config.setCircuitBreakerOpenTime(Duration.ofMillis(circuitBreakerOpenTimeMillis));
+            return this;
+        }
+
         public SftpPoolConfig build() {
             return config;
         }
@@ -0,0 +1,22 @@
+package me.meilon.jsftp.core.conf;
+
+/**
+ * 异步及并行传输任务使用的线程类型
+ * @author meilon
+ */
+public enum ThreadMode {
+
+    /**
+     * 平台线程, 线程数固定
+     */
+    PLATFORM,
+    /**
+     * 虚拟线程 (JDK 21 及以上), 阻塞在网络 IO 上时不占用平台线程;
+     * 运行环境不支持时自动退回平台线程;
+     * 链接池耗尽时借用线程在 commons-pool2 的阻塞队列上等待, 不占用平台线程,
+     * 但同一个 sftpId 有其他线程正在新建链接时, commons-pool2 会在 synchronized 块中等待新建完成,
+     * JDK 24 之前此等待会占用平台线程
+     */
+    VIRTUAL
+
+}
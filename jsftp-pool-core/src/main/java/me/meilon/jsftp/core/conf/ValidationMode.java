@@ -0,0 +1,28 @@
+package me.meilon.jsftp.core.conf;
+
+/**
+ * 链接池校验链接是否可用的方式
+ * <p>
+ * 无论哪种方式都会先检查本地的链接状态; 最近有过成功请求的链接视为可用, 不再探测,
+ * 间隔由 {@link SftpPoolConfig#getValidationIdleTime()} 设置
+ * @author meilon
+ */
+public enum ValidationMode {
+
+    /**
+     * 只检查本地的链接状态, 不产生网络请求;
+     * 无法发现已经半开的 TCP 链接
+     */
+    CONNECTED,
+    /**
+     * 发送一个 ssh keepalive 消息, 不等待响应;
+     * 开销最小, 能发现已经断开的写通道
+     */
+    KEEPALIVE,
+    /**
+     * 发送一次 realpath 请求并等待响应;
+     * 多一次往返, 能可靠地发现半开的链接
+     */
+    REALPATH
+
+}
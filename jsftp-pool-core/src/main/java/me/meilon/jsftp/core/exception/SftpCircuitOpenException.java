@@ -0,0 +1,29 @@
+package me.meilon.jsftp.core.exception;
+
+/**
+ * 熔断器打开时借用链接直接失败抛出的异常
+ * 目标主机最近连续创建链接失败, 冷却时间结束前不再尝试连接
+ * @author meilon
+ * @see me.meilon.jsftp.core.SftpCircuitBreaker
+ */
+public class SftpCircuitOpenException extends SftpConnectException {
+
+    public SftpCircuitOpenException() {
+    }
+
+    public SftpCircuitOpenException(String message) {
+        super(message);
+    }
+
+    public SftpCircuitOpenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public SftpCircuitOpenException(Throwable cause) {
+        super(cause);
+    }
+
+    public SftpCircuitOpenException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
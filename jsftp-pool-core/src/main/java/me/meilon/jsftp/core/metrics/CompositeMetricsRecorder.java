@@ -0,0 +1,100 @@
+package me.meilon.jsftp.core.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 组合多个指标记录, 依次转发给每一个
+ * @author meilon
+ * @see me.meilon.jsftp.core.SftpPooledFactory#addMetricsRecorder(SftpMetricsRecorder)
+ */
+public final class CompositeMetricsRecorder implements SftpMetricsRecorder {
+
+    private final SftpMetricsRecorder[] recorders;
+
+    public CompositeMetricsRecorder(SftpMetricsRecorder... recorders) {
+        this.recorders = recorders.clone();
+    }
+
+    /**
+     * 获取被组合的指标记录
+     * @return 指标记录列表, 不可修改
+     */
+    public List<SftpMetricsRecorder> getRecorders() {
+        return Arrays.asList(recorders.clone());
+    }
+
+    /**
+     * 追加一个指标记录, 返回新的组合
+     * @param recorder 指标记录
+     * @return 新的组合指标记录
+     */
+    public CompositeMetricsRecorder with(SftpMetricsRecorder recorder) {
+        SftpMetricsRecorder[] array = Arrays.copyOf(recorders, recorders.length + 1);
+        array[recorders.length] = recorder;
+        return new CompositeMetricsRecorder(array);
+    }
+
+    @Override
+    public void recordBorrow(String sftpId, long nanos, boolean success) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordBorrow(sftpId, nanos, success);
+        }
+    }
+
+    @Override
+    public void recordCreate(String sftpId, long nanos, boolean success) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordCreate(sftpId, nanos, success);
+        }
+    }
+
+    @Override
+    public void recordDestroy(String sftpId, long nanos) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordDestroy(sftpId, nanos);
+        }
+    }
+
+    @Override
+    public void recordValidationFailure(String sftpId) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordValidationFailure(sftpId);
+        }
+    }
+
+    @Override
+    public void recordUpload(String sftpId, long bytes) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordUpload(sftpId, bytes);
+        }
+    }
+
+    @Override
+    public void recordDownload(String sftpId, long bytes) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordDownload(sftpId, bytes);
+        }
+    }
+
+    @Override
+    public void recordOperation(String sftpId, String operation, long nanos, boolean success) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordOperation(sftpId, operation, nanos, success);
+        }
+    }
+
+    @Override
+    public void recordResize(String sftpId, String decision, int maxTotalPerKey, int maxIdlePerKey) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordResize(sftpId, decision, maxTotalPerKey, maxIdlePerKey);
+        }
+    }
+
+    @Override
+    public void recordCircuitState(String sftpId, String state) {
+        for (SftpMetricsRecorder recorder : recorders) {
+            recorder.recordCircuitState(sftpId, state);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.meilon.jsftp.core.metrics;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 最近若干次耗时的滑动窗口
+ * 只保留最近 capacity 次记录, 超出后覆盖最早的记录
+ * @author meilon
+ */
+public final class LatencyWindow {
+
+    private final long[] samples;
+
+    private int next = 0;
+
+    private int size = 0;
+
+    private long total = 0;
+
+    public LatencyWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * 记录一次耗时
+     * @param nanos 耗时, 纳秒
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+        total++;
+    }
+
+    /**
+     * 获取窗口内耗时的统计
+     * @return 统计快照
+     */
+    public Snapshot snapshot() {
+        long[] copy;
+        long count;
+        synchronized (this) {
+            copy = Arrays.copyOf(samples, size);
+            count = total;
+        }
+        return new Snapshot(copy, count);
+    }
+
+    /**
+     * 耗时统计快照, 时间单位均为毫秒
+     */
+    @Getter
+    public static final class Snapshot {
+
+        /**
+         * 累计记录次数, 包含已滑出窗口的记录
+         */
+        private final long count;
+
+        /**
+         * 窗口内的记录数
+         */
+        private final int size;
+
+        private final double mean;
+
+        private final double max;
+
+        private final double p50;
+
+        private final double p95;
+
+        private final double p99;
+
+        Snapshot(long[] samples, long count) {
+            this.count = count;
+            this.size = samples.length;
+            Arrays.sort(samples);
+            long sum = 0;
+            for (long sample : samples) {
+                sum += sample;
+            }
+            this.mean = samples.length == 0 ? 0 : toMillis(sum / samples.length);
+            this.max = samples.length == 0 ? 0 : toMillis(samples[samples.length - 1]);
+            this.p50 = percentile(samples, 0.5);
+            this.p95 = percentile(samples, 0.95);
+            this.p99 = percentile(samples, 0.99);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return toMillis(sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+        }
+
+        private static double toMillis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.2fms, p50=%.2fms, p95=%.2fms, p99=%.2fms, max=%.2fms",
+                    count, mean, p50, p95, p99, max);
+        }
+    }
+}
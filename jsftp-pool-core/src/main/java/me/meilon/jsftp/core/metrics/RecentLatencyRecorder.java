@@ -0,0 +1,86 @@
+package me.meilon.jsftp.core.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录每个 sftp 最近的借用等待时间和创建链接耗时
+ * 用于健康检查, 管理端点等需要查看近期状况的场景, 不依赖任何监控系统
+ * @author meilon
+ */
+public class RecentLatencyRecorder implements SftpMetricsRecorder {
+
+    /**
+     * 默认每个 sftp 保留的记录数
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 128;
+
+    private final int windowSize;
+
+    private final Map<String, LatencyWindow> borrowWindows = new ConcurrentHashMap<>();
+
+    private final Map<String, LatencyWindow> createWindows = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> createFailures = new ConcurrentHashMap<>();
+
+    public RecentLatencyRecorder() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize 每个 sftp 保留的记录数
+     */
+    public RecentLatencyRecorder(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public void recordBorrow(String sftpId, long nanos, boolean success) {
+        borrowWindows.computeIfAbsent(sftpId, k -> new LatencyWindow(windowSize)).record(nanos);
+    }
+
+    @Override
+    public void recordCreate(String sftpId, long nanos, boolean success) {
+        createWindows.computeIfAbsent(sftpId, k -> new LatencyWindow(windowSize)).record(nanos);
+        if (!success) {
+            createFailures.computeIfAbsent(sftpId, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * 获取最近的借用等待时间
+     * @param sftpId 指定sftp的唯一id
+     * @return 统计快照
+     */
+    public LatencyWindow.Snapshot getBorrowLatency(String sftpId) {
+        return snapshot(borrowWindows, sftpId);
+    }
+
+    /**
+     * 获取最近的创建链接耗时, 包含失败的创建
+     * @param sftpId 指定sftp的唯一id
+     * @return 统计快照
+     */
+    public LatencyWindow.Snapshot getCreateLatency(String sftpId) {
+        return snapshot(createWindows, sftpId);
+    }
+
+    /**
+     * 获取累计创建链接失败的次数
+     * @param sftpId 指定sftp的唯一id
+     * @return 失败次数
+     */
+    public long getCreateFailureCount(String sftpId) {
+        AtomicLong count = createFailures.get(sftpId);
+        return count == null ? 0 : count.get();
+    }
+
+    private LatencyWindow.Snapshot snapshot(Map<String, LatencyWindow> windows, String sftpId) {
+        LatencyWindow window = windows.get(sftpId);
+        return window == null ? new LatencyWindow.Snapshot(new long[0], 0) : window.snapshot();
+    }
+}
@@ -0,0 +1,97 @@
+package me.meilon.jsftp.core.metrics;
+
+/**
+ * sftp 链接池的指标记录接口
+ * <p>
+ * 链接池和 sftp 链接在关键位置回调此接口, 实现类可以将数据发布到任意监控系统;
+ * 所有方法默认不做任何操作; 未设置时使用 {@link #NOOP}, 此时调用方会跳过计时, 开销可以忽略
+ * <p>
+ * 实现类会被多个线程同时调用, 必须是线程安全的, 且不能阻塞
+ * @author meilon
+ */
+public interface SftpMetricsRecorder {
+
+    /**
+     * 不记录任何指标
+     */
+    SftpMetricsRecorder NOOP = new SftpMetricsRecorder() {
+    };
+
+    /**
+     * 记录一次从链接池借用链接
+     * @param sftpId 指定sftp的唯一id
+     * @param nanos 等待时间, 纳秒
+     * @param success 是否借用成功
+     */
+    default void recordBorrow(String sftpId, long nanos, boolean success) {
+    }
+
+    /**
+     * 记录一次创建链接
+     * @param sftpId 指定sftp的唯一id
+     * @param nanos 耗时, 纳秒
+     * @param success 是否创建成功
+     */
+    default void recordCreate(String sftpId, long nanos, boolean success) {
+    }
+
+    /**
+     * 记录一次销毁链接
+     * @param sftpId 指定sftp的唯一id
+     * @param nanos 耗时, 纳秒
+     */
+    default void recordDestroy(String sftpId, long nanos) {
+    }
+
+    /**
+     * 记录一次链接有效性校验失败
+     * @param sftpId 指定sftp的唯一id
+     */
+    default void recordValidationFailure(String sftpId) {
+    }
+
+    /**
+     * 记录上传的字节数
+     * @param sftpId 指定sftp的唯一id
+     * @param bytes 字节数
+     */
+    default void recordUpload(String sftpId, long bytes) {
+    }
+
+    /**
+     * 记录下载的字节数
+     * @param sftpId 指定sftp的唯一id
+     * @param bytes 字节数
+     */
+    default void recordDownload(String sftpId, long bytes) {
+    }
+
+    /**
+     * 记录一次 sftp 操作
+     * @param sftpId 指定sftp的唯一id
+     * @param operation 操作名, 如 lstat, put, get, ls 等
+     * @param nanos 耗时, 纳秒
+     * @param success 是否成功
+     */
+    default void recordOperation(String sftpId, String operation, long nanos, boolean success) {
+    }
+
+    /**
+     * 记录一次自适应调整链接池容量
+     * @param sftpId 触发调整的 sftp 唯一id
+     * @param decision 调整方向: grow, shrink, backoff
+     * @param maxTotalPerKey 调整后每个 key 最大可存在的链接数
+     * @param maxIdlePerKey 调整后每个 key 最大保持的空闲链接数
+     */
+    default void recordResize(String sftpId, String decision, int maxTotalPerKey, int maxIdlePerKey) {
+    }
+
+    /**
+     * 记录一次熔断器状态变化
+     * 熔断器按 host:port 共享, sftpId 为触发状态变化的 sftp
+     * @param sftpId 触发状态变化的 sftp 唯一id
+     * @param state 变化后的状态: CLOSED, OPEN, HALF_OPEN
+     */
+    default void recordCircuitState(String sftpId, String state) {
+    }
+}
@@ -0,0 +1,209 @@
+package me.meilon.jsftp.core.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.SftpPooledFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将 sftp 链接池指标发布到 Micrometer
+ * <p>
+ * 调用 {@link #bindTo(MeterRegistry)} 后会把自身追加到工厂的指标记录中, 发布以下指标, 均带有 sftpId 标签:
+ * <ul>
+ *     <li>jsftp.pool.active / jsftp.pool.idle / jsftp.pool.waiters: 借出的链接数, 空闲链接数, 等待借用的线程数</li>
+ *     <li>jsftp.pool.borrow: 借用链接的等待时间, result 标签区分成功和失败</li>
+ *     <li>jsftp.connection.create / jsftp.connection.destroy: 创建和销毁链接的耗时</li>
+ *     <li>jsftp.connection.validation.failures: 链接校验失败次数</li>
+ *     <li>jsftp.transfer.bytes: 传输字节数, direction 标签区分 upload 和 download</li>
+ *     <li>jsftp.operation: 每种 sftp 操作的耗时, operation 和 result 标签区分操作和结果</li>
+ *     <li>jsftp.pool.max.total.per.key / jsftp.pool.max.idle.per.key: 当前的每 key 容量, 不带 sftpId 标签</li>
+ *     <li>jsftp.pool.resize: 自动调整容量的次数, decision 标签区分 grow, shrink, backoff</li>
+ *     <li>jsftp.circuit.transitions: 熔断器状态变化次数, state 标签为变化后的状态</li>
+ * </ul>
+ * 未绑定时不会设置指标记录, 链接池不做任何计时
+ * @author meilon
+ */
+public class SftpPoolMetrics implements MeterBinder, SftpMetricsRecorder {
+
+    private static final String TAG_SFTP_ID = "sftpId";
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    private final SftpPooledFactory factory;
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * 已注册链接数指标的 sftpId
+     */
+    private final Map<String, Boolean> boundIds = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public SftpPoolMetrics(SftpPooledFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        boolean first = this.registry == null;
+        this.registry = registry;
+        for (String sftpId : factory.getSftpPool().getNumActivePerKey().keySet()) {
+            bindGauges(sftpId);
+        }
+        if (first) {
+            SftpPool pool = factory.getSftpPool();
+            Gauge.builder("jsftp.pool.max.total.per.key", pool, SftpPool::getMaxTotalPerKey)
+                    .description("每个 key 最大可存在的链接数")
+                    .strongReference(true)
+                    .register(registry);
+            Gauge.builder("jsftp.pool.max.idle.per.key", pool, SftpPool::getMaxIdlePerKey)
+                    .description("每个 key 最大保持的空闲链接数")
+                    .strongReference(true)
+                    .register(registry);
+            factory.addMetricsRecorder(this);
+        }
+    }
+
+    /**
+     * 注册指定 sftp 的链接数指标
+     * 链接池中的 sftpId 是按需加入的, 第一次记录到该 sftpId 的指标时注册
+     */
+    private void bindGauges(String sftpId) {
+        MeterRegistry r = registry;
+        if (r == null || boundIds.putIfAbsent(sftpId, Boolean.TRUE) != null) {
+            return;
+        }
+        SftpPool pool = factory.getSftpPool();
+        Gauge.builder("jsftp.pool.active", pool, p -> p.getNumInUse(sftpId))
+                .description("正在使用的链接数")
+                .tag(TAG_SFTP_ID, sftpId)
+                .strongReference(true)
+                .register(r);
+        Gauge.builder("jsftp.pool.idle", pool, p -> p.getNumIdle(sftpId))
+                .description("空闲的链接数")
+                .tag(TAG_SFTP_ID, sftpId)
+                .strongReference(true)
+                .register(r);
+        Gauge.builder("jsftp.pool.parked", pool, p -> p.getNumParked(sftpId))
+                .description("暂存在线程亲和快速路径中的链接数")
+                .tag(TAG_SFTP_ID, sftpId)
+                .strongReference(true)
+                .register(r);
+        Gauge.builder("jsftp.pool.waiters", pool, p -> p.getNumWaitersByKey().getOrDefault(sftpId, 0))
+                .description("等待借用链接的线程数")
+                .tag(TAG_SFTP_ID, sftpId)
+                .strongReference(true)
+                .register(r);
+    }
+
+    @Override
+    public void recordBorrow(String sftpId, long nanos, boolean success) {
+        bindGauges(sftpId);
+        record(timer("jsftp.pool.borrow", sftpId, "result", success ? SUCCESS : FAILURE), nanos);
+    }
+
+    @Override
+    public void recordCreate(String sftpId, long nanos, boolean success) {
+        record(timer("jsftp.connection.create", sftpId, "result", success ? SUCCESS : FAILURE), nanos);
+    }
+
+    @Override
+    public void recordDestroy(String sftpId, long nanos) {
+        record(timer("jsftp.connection.destroy", sftpId, null, null), nanos);
+    }
+
+    @Override
+    public void recordValidationFailure(String sftpId) {
+        increment(counter("jsftp.connection.validation.failures", sftpId, null, null, null), 1);
+    }
+
+    @Override
+    public void recordUpload(String sftpId, long bytes) {
+        increment(counter("jsftp.transfer.bytes", sftpId, "direction", "upload", "bytes"), bytes);
+    }
+
+    @Override
+    public void recordDownload(String sftpId, long bytes) {
+        increment(counter("jsftp.transfer.bytes", sftpId, "direction", "download", "bytes"), bytes);
+    }
+
+    @Override
+    public void recordOperation(String sftpId, String operation, long nanos, boolean success) {
+        Timer timer = timer("jsftp.operation", sftpId, "operation", operation, "result", success ? SUCCESS : FAILURE);
+        record(timer, nanos);
+    }
+
+    @Override
+    public void recordResize(String sftpId, String decision, int maxTotalPerKey, int maxIdlePerKey) {
+        increment(counter("jsftp.pool.resize", sftpId, "decision", decision, null), 1);
+    }
+
+    @Override
+    public void recordCircuitState(String sftpId, String state) {
+        increment(counter("jsftp.circuit.transitions", sftpId, "state", state, null), 1);
+    }
+
+    private static void record(Timer timer, long nanos) {
+        if (timer != null) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void increment(Counter counter, long amount) {
+        if (counter != null && amount > 0) {
+            counter.increment(amount);
+        }
+    }
+
+    /**
+     * 获取计时器, 按名称和标签缓存, 避免每次记录都查找注册表
+     * @param tags 额外的标签, 按 key, value 依次排列, 值为 null 的标签忽略
+     */
+    private Timer timer(String name, String sftpId, String... tags) {
+        MeterRegistry r = registry;
+        if (r == null || sftpId == null) {
+            return null;
+        }
+        return timers.computeIfAbsent(key(name, sftpId, tags), k -> {
+            Timer.Builder builder = Timer.builder(name).tag(TAG_SFTP_ID, sftpId);
+            for (int i = 0; i + 1 < tags.length; i += 2) {
+                if (tags[i] != null && tags[i + 1] != null) {
+                    builder.tag(tags[i], tags[i + 1]);
+                }
+            }
+            return builder.register(r);
+        });
+    }
+
+    private Counter counter(String name, String sftpId, String tagKey, String tagValue, String baseUnit) {
+        MeterRegistry r = registry;
+        if (r == null || sftpId == null) {
+            return null;
+        }
+        return counters.computeIfAbsent(key(name, sftpId, tagKey, tagValue), k -> {
+            Counter.Builder builder = Counter.builder(name).tag(TAG_SFTP_ID, sftpId).baseUnit(baseUnit);
+            if (tagKey != null) {
+                builder.tag(tagKey, tagValue);
+            }
+            return builder.register(r);
+        });
+    }
+
+    private static String key(String name, String sftpId, String... tags) {
+        StringBuilder sb = new StringBuilder(name).append('|').append(sftpId);
+        for (String tag : tags) {
+            sb.append('|').append(tag);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,638 @@
+package me.meilon.jsftp.core.protocol;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSubsystem;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于 sftp 子系统的报文通道
+ * <p>
+ * {@link ChannelSftp} 的每个操作都要等待响应后才能发送下一个请求, 且不支持按偏移量写入和扩展请求;
+ * 此通道直接收发 sftp v3 协议报文, 每个 send 方法发送请求后立即返回 request-id,
+ * 调用者可以同时保持多个请求在途, 再通过 {@link #await(int)} 按 request-id 获取响应;
+ * <p>
+ * 注: 此通道会在 ssh 会话上额外占用一个通道, 用完后应及时关闭;
+ * 此类不是线程安全的, 同一时间只能由一个线程使用
+ * @author meilon
+ */
+public class SftpPacketChannel implements Closeable {
+
+    public static final int SSH_FXF_READ = 0x00000001;
+    public static final int SSH_FXF_WRITE = 0x00000002;
+    public static final int SSH_FXF_APPEND = 0x00000004;
+    public static final int SSH_FXF_CREAT = 0x00000008;
+    public static final int SSH_FXF_TRUNC = 0x00000010;
+    public static final int SSH_FXF_EXCL = 0x00000020;
+
+    public static final int SSH_FXP_INIT = 1;
+    public static final int SSH_FXP_VERSION = 2;
+    public static final int SSH_FXP_OPEN = 3;
+    public static final int SSH_FXP_CLOSE = 4;
+    public static final int SSH_FXP_READ = 5;
+    public static final int SSH_FXP_WRITE = 6;
+    public static final int SSH_FXP_LSTAT = 7;
+    public static final int SSH_FXP_SETSTAT = 9;
+    public static final int SSH_FXP_REMOVE = 13;
+    public static final int SSH_FXP_STAT = 17;
+    public static final int SSH_FXP_RENAME = 18;
+    public static final int SSH_FXP_STATUS = 101;
+    public static final int SSH_FXP_HANDLE = 102;
+    public static final int SSH_FXP_DATA = 103;
+    public static final int SSH_FXP_ATTRS = 105;
+    public static final int SSH_FXP_EXTENDED = 200;
+    public static final int SSH_FXP_EXTENDED_REPLY = 201;
+
+    /**
+     * 单个写请求的最大数据长度
+     * OpenSSH 限制单个报文不超过 256K, 32K 是各服务端都能接受的长度
+     */
+    public static final int MAX_WRITE_LENGTH = 32 * 1024;
+
+    private static final int SFTP_VERSION = 3;
+
+    private static final int SSH_FILEXFER_ATTR_PERMISSIONS = 0x00000004;
+
+    private final ChannelSubsystem channel;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    /**
+     * 服务端在 SSH_FXP_VERSION 中声明支持的扩展
+     */
+    private final Map<String, String> extensions = new HashMap<>();
+
+    /**
+     * 已收到但还没有被取走的响应
+     */
+    private final Map<Integer, SftpResponse> responses = new HashMap<>();
+
+    private final ByteArrayOutputStream packetBuffer = new ByteArrayOutputStream(MAX_WRITE_LENGTH + 64);
+
+    private final DataOutputStream packet = new DataOutputStream(packetBuffer);
+
+    private int seq = 1;
+
+    private int serverVersion;
+
+    /**
+     * 关闭通道后执行, 只执行一次
+     */
+    private final Runnable onClose;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private SftpPacketChannel(ChannelSubsystem channel, Runnable onClose) throws IOException {
+        this.channel = channel;
+        this.onClose = onClose;
+        this.in = new DataInputStream(channel.getInputStream());
+        this.out = new DataOutputStream(channel.getOutputStream());
+    }
+
+    /**
+     * 在 ssh 会话上打开一个 sftp 报文通道
+     * @param session ssh 会话
+     * @return 报文通道
+     * @throws SftpException 打开通道或协议握手失败时抛出异常
+     */
+    public static SftpPacketChannel open(Session session) throws SftpException {
+        return open(session, null);
+    }
+
+    /**
+     * 在 ssh 会话上打开一个 sftp 报文通道
+     * @param session ssh 会话
+     * @param onClose 关闭通道后执行, 如释放会话上的通道名额; 打开失败时不执行, 由调用者自行处理
+     * @return 报文通道
+     * @throws SftpException 打开通道或协议握手失败时抛出异常
+     */
+    public static SftpPacketChannel open(Session session, Runnable onClose) throws SftpException {
+        ChannelSubsystem channel = null;
+        try {
+            channel = (ChannelSubsystem) session.openChannel("subsystem");
+            channel.setSubsystem("sftp");
+            SftpPacketChannel packetChannel = new SftpPacketChannel(channel, onClose);
+            channel.connect();
+            packetChannel.init();
+            return packetChannel;
+        } catch (JSchException | IOException e) {
+            if (channel != null) {
+                channel.disconnect();
+            }
+            throw new SftpException(ChannelSftp.SSH_FX_NO_CONNECTION, "open sftp packet channel failed", e);
+        }
+    }
+
+    private void init() throws IOException, SftpException {
+        packetBuffer.reset();
+        packet.writeByte(SSH_FXP_INIT);
+        packet.writeInt(SFTP_VERSION);
+        flushPacket();
+        int length = in.readInt();
+        int type = in.readUnsignedByte();
+        byte[] payload = new byte[length - 1];
+        in.readFully(payload);
+        if (type != SSH_FXP_VERSION) {
+            throw new SftpException(ChannelSftp.SSH_FX_BAD_MESSAGE, "unexpected packet type " + type);
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(payload));
+        serverVersion = body.readInt();
+        while (body.available() > 0) {
+            extensions.put(readString(body), readString(body));
+        }
+    }
+
+    /**
+     * 服务端的 sftp 协议版本
+     * @return 协议版本
+     */
+    public int getServerVersion() {
+        return serverVersion;
+    }
+
+    /**
+     * 服务端是否支持指定的扩展
+     * @param name 扩展名, 如 copy-data
+     * @return true: 支持
+     */
+    public boolean hasExtension(String name) {
+        return extensions.containsKey(name);
+    }
+
+    /**
+     * 发送打开文件请求
+     * @param path 文件路径
+     * @param pflags 打开方式, 如 {@link #SSH_FXF_WRITE} | {@link #SSH_FXF_CREAT}
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendOpen(String path, int pflags) throws SftpException {
+        int id = beginPacket(SSH_FXP_OPEN);
+        try {
+            writeString(path);
+            packet.writeInt(pflags);
+            // 空属性
+            packet.writeInt(0);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 打开文件
+     * @param path 文件路径
+     * @param pflags 打开方式, 如 {@link #SSH_FXF_WRITE} | {@link #SSH_FXF_CREAT}
+     * @return 文件句柄
+     * @throws SftpException 打开失败时抛出异常
+     */
+    public byte[] open(String path, int pflags) throws SftpException {
+        SftpResponse response = await(sendOpen(path, pflags));
+        response.check();
+        if (response.getType() != SSH_FXP_HANDLE) {
+            throw new SftpException(ChannelSftp.SSH_FX_BAD_MESSAGE, "unexpected packet type " + response.getType());
+        }
+        return response.getHandle();
+    }
+
+    /**
+     * 发送关闭句柄请求
+     * @param handle 文件句柄
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendClose(byte[] handle) throws SftpException {
+        int id = beginPacket(SSH_FXP_CLOSE);
+        try {
+            writeBytes(handle, 0, handle.length);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 关闭句柄
+     * @param handle 文件句柄
+     * @throws SftpException 关闭失败时抛出异常
+     */
+    public void close(byte[] handle) throws SftpException {
+        await(sendClose(handle)).check();
+    }
+
+    /**
+     * 发送按偏移量写入请求
+     * @param handle 文件句柄
+     * @param offset 文件中的写入位置
+     * @param data 数据
+     * @param off 数据起始位置
+     * @param len 数据长度, 不能超过 {@link #MAX_WRITE_LENGTH}
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendWrite(byte[] handle, long offset, byte[] data, int off, int len) throws SftpException {
+        int id = beginPacket(SSH_FXP_WRITE);
+        try {
+            writeBytes(handle, 0, handle.length);
+            packet.writeLong(offset);
+            writeBytes(data, off, len);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 将输入流中的数据从指定位置开始顺序写入文件
+     * 写请求不等待响应连续发送, 最多同时保持 maxInFlight 个请求在途,
+     * 内存占用不超过 maxInFlight * {@link #MAX_WRITE_LENGTH}
+     * @param handle 文件句柄, 需以写方式打开
+     * @param offset 文件中的起始写入位置
+     * @param in 输入流
+     * @param maxInFlight 最多同时在途的写请求数
+     * @return 写入的字节数
+     * @throws SftpException 写入失败时抛出异常
+     * @throws IOException 读取输入流失败时抛出异常
+     */
+    public long write(byte[] handle, long offset, InputStream in, int maxInFlight) throws SftpException, IOException {
+        byte[] buffer = new byte[MAX_WRITE_LENGTH];
+        Deque<Integer> inFlight = new ArrayDeque<>(maxInFlight);
+        long position = offset;
+        int len;
+        while ((len = in.read(buffer, 0, buffer.length)) > -1) {
+            if (len == 0) {
+                continue;
+            }
+            inFlight.add(sendWrite(handle, position, buffer, 0, len));
+            position += len;
+            if (inFlight.size() >= maxInFlight) {
+                await(inFlight.poll()).check();
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            await(inFlight.poll()).check();
+        }
+        return position - offset;
+    }
+
+    /**
+     * 发送按偏移量读取请求
+     * @param handle 文件句柄, 需以读方式打开
+     * @param offset 文件中的读取位置
+     * @param length 读取长度, 服务端返回的数据可能少于此长度
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendRead(byte[] handle, long offset, int length) throws SftpException {
+        int id = beginPacket(SSH_FXP_READ);
+        try {
+            writeBytes(handle, 0, handle.length);
+            packet.writeLong(offset);
+            packet.writeInt(length);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 将一个文件的数据从头顺序复制到另一个文件, 数据经过客户端中转
+     * 读请求和写请求都在此通道上连续发送, 各自最多同时保持 maxInFlight 个请求在途;
+     * 注: 不要从同一会话上 {@link ChannelSftp} 的输入流读取再写入此通道,
+     * 会话上的所有通道共用一个接收线程, 输入流预读的数据没有被及时取走时, 此通道也收不到响应
+     * @param readHandle 源文件句柄, 需以读方式打开
+     * @param writeHandle 目标文件句柄, 需以写方式打开
+     * @param maxInFlight 读, 写请求各自最多同时在途的请求数
+     * @return 复制的字节数
+     * @throws SftpException 读写失败时抛出异常
+     */
+    public long transfer(byte[] readHandle, byte[] writeHandle, int maxInFlight) throws SftpException {
+        // 在途的读请求: request-id, 读取位置, 读取长度
+        Deque<long[]> reads = new ArrayDeque<>(maxInFlight + 1);
+        Deque<Integer> writes = new ArrayDeque<>(maxInFlight);
+        long next = 0;
+        long end = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && reads.size() < maxInFlight) {
+                reads.add(new long[]{sendRead(readHandle, next, MAX_WRITE_LENGTH), next, MAX_WRITE_LENGTH});
+                next += MAX_WRITE_LENGTH;
+            }
+            long[] read = reads.poll();
+            if (read == null) {
+                break;
+            }
+            SftpResponse response = await((int) read[0]);
+            byte[] data = response.getData();
+            if (response.getType() != SSH_FXP_DATA || data.length == 0) {
+                if (response.getStatus() != ChannelSftp.SSH_FX_EOF) {
+                    response.check();
+                }
+                // 之后的读请求位置都在文件末尾之后, 只取走响应, 不再发送新的读请求
+                eof = true;
+                continue;
+            }
+            writes.add(sendWrite(writeHandle, read[1], data, 0, data.length));
+            end = Math.max(end, read[1] + data.length);
+            if (data.length < read[2]) {
+                // 服务端返回的数据少于请求长度, 补读剩余部分
+                long offset = read[1] + data.length;
+                long length = read[2] - data.length;
+                reads.addFirst(new long[]{sendRead(readHandle, offset, (int) length), offset, length});
+            }
+            if (writes.size() >= maxInFlight) {
+                await(writes.poll()).check();
+            }
+        }
+        while (!writes.isEmpty()) {
+            await(writes.poll()).check();
+        }
+        return end;
+    }
+
+    /**
+     * 发送删除文件请求
+     * @param path 文件路径, 需为绝对路径
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendRemove(String path) throws SftpException {
+        return sendPath(SSH_FXP_REMOVE, path);
+    }
+
+    /**
+     * 发送重命名请求
+     * @param oldPath 原路径, 需为绝对路径
+     * @param newPath 新路径, 需为绝对路径
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendRename(String oldPath, String newPath) throws SftpException {
+        int id = beginPacket(SSH_FXP_RENAME);
+        try {
+            writeString(oldPath);
+            writeString(newPath);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 发送修改权限请求
+     * @param path 文件或目录路径, 需为绝对路径
+     * @param permissions 权限, 如 0644
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendChmod(String path, int permissions) throws SftpException {
+        int id = beginPacket(SSH_FXP_SETSTAT);
+        try {
+            writeString(path);
+            packet.writeInt(SSH_FILEXFER_ATTR_PERMISSIONS);
+            packet.writeInt(permissions);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 发送获取文件属性请求, 不跟随符号链接
+     * 响应为 SSH_FXP_ATTRS 报文, 通过 {@link SftpResponse#getAttrs()} 获取属性
+     * @param path 文件或目录路径, 需为绝对路径
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendLstat(String path) throws SftpException {
+        return sendPath(SSH_FXP_LSTAT, path);
+    }
+
+    private int sendPath(int type, String path) throws SftpException {
+        int id = beginPacket(type);
+        try {
+            writeString(path);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 发送 copy-file 扩展请求, 在服务端复制文件, 数据不经过网络传输
+     * 需要服务端支持 copy-file 扩展, 见 {@link #hasExtension(String)}
+     * @param source 源文件路径
+     * @param destination 目标文件路径
+     * @param overwrite 目标文件已存在时是否覆盖
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendCopyFile(String source, String destination, boolean overwrite) throws SftpException {
+        int id = beginPacket(SSH_FXP_EXTENDED);
+        try {
+            writeString("copy-file");
+            writeString(source);
+            writeString(destination);
+            packet.writeBoolean(overwrite);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 在服务端复制文件
+     * @see #sendCopyFile(String, String, boolean)
+     * @param source 源文件路径
+     * @param destination 目标文件路径
+     * @param overwrite 目标文件已存在时是否覆盖
+     * @throws SftpException 复制失败时抛出异常
+     */
+    public void copyFile(String source, String destination, boolean overwrite) throws SftpException {
+        await(sendCopyFile(source, destination, overwrite)).check();
+    }
+
+    /**
+     * 发送 copy-data 扩展请求, 在服务端将一个文件的数据复制到另一个文件, 数据不经过网络传输
+     * 需要服务端支持 copy-data 扩展, 见 {@link #hasExtension(String)}
+     * @param readHandle 源文件句柄, 需以读方式打开
+     * @param readOffset 源文件读取位置
+     * @param length 复制的长度, 0 表示复制到源文件末尾
+     * @param writeHandle 目标文件句柄, 需以写方式打开
+     * @param writeOffset 目标文件写入位置
+     * @return request-id
+     * @throws SftpException 发送失败时抛出异常
+     */
+    public int sendCopyData(byte[] readHandle, long readOffset, long length,
+                            byte[] writeHandle, long writeOffset) throws SftpException {
+        int id = beginPacket(SSH_FXP_EXTENDED);
+        try {
+            writeString("copy-data");
+            writeBytes(readHandle, 0, readHandle.length);
+            packet.writeLong(readOffset);
+            packet.writeLong(length);
+            writeBytes(writeHandle, 0, writeHandle.length);
+            packet.writeLong(writeOffset);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return sendPacket(id);
+    }
+
+    /**
+     * 在服务端复制文件数据
+     * @see #sendCopyData(byte[], long, long, byte[], long)
+     * @param readHandle 源文件句柄, 需以读方式打开
+     * @param readOffset 源文件读取位置
+     * @param length 复制的长度, 0 表示复制到源文件末尾
+     * @param writeHandle 目标文件句柄, 需以写方式打开
+     * @param writeOffset 目标文件写入位置
+     * @throws SftpException 复制失败时抛出异常
+     */
+    public void copyData(byte[] readHandle, long readOffset, long length,
+                         byte[] writeHandle, long writeOffset) throws SftpException {
+        await(sendCopyData(readHandle, readOffset, length, writeHandle, writeOffset)).check();
+    }
+
+    /**
+     * 等待指定请求的响应
+     * 等待期间收到的其他请求的响应会被暂存, 供后续获取
+     * @param id request-id
+     * @return 响应报文
+     * @throws SftpException 读取失败时抛出异常
+     */
+    public SftpResponse await(int id) throws SftpException {
+        SftpResponse response = responses.remove(id);
+        while (response == null) {
+            SftpResponse received = receive();
+            if (received.getId() == id) {
+                response = received;
+            }
+            else {
+                responses.put(received.getId(), received);
+            }
+        }
+        return response;
+    }
+
+    private SftpResponse receive() throws SftpException {
+        try {
+            int length = in.readInt();
+            int type = in.readUnsignedByte();
+            int id = in.readInt();
+            int remaining = length - 5;
+            SftpResponse response = new SftpResponse(type, id);
+            switch (type) {
+                case SSH_FXP_STATUS: {
+                    byte[] payload = new byte[remaining];
+                    in.readFully(payload);
+                    DataInputStream body = new DataInputStream(new ByteArrayInputStream(payload));
+                    int code = body.readInt();
+                    String message = body.available() >= 4 ? readString(body) : null;
+                    response.setStatus(code, message);
+                    break;
+                }
+                case SSH_FXP_HANDLE: {
+                    byte[] handle = new byte[in.readInt()];
+                    in.readFully(handle);
+                    response.setHandle(handle);
+                    break;
+                }
+                case SSH_FXP_DATA: {
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    response.setData(data);
+                    break;
+                }
+                default: {
+                    byte[] data = new byte[remaining];
+                    in.readFully(data);
+                    response.setData(data);
+                    break;
+                }
+            }
+            return response;
+        } catch (IOException e) {
+            throw lost(e);
+        }
+    }
+
+    private int beginPacket(int type) throws SftpException {
+        int id = seq++;
+        packetBuffer.reset();
+        try {
+            packet.writeByte(type);
+            packet.writeInt(id);
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return id;
+    }
+
+    private int sendPacket(int id) throws SftpException {
+        try {
+            flushPacket();
+        } catch (IOException e) {
+            throw lost(e);
+        }
+        return id;
+    }
+
+    private void flushPacket() throws IOException {
+        out.writeInt(packetBuffer.size());
+        packetBuffer.writeTo(out);
+        out.flush();
+    }
+
+    private void writeString(String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int off, int len) throws IOException {
+        packet.writeInt(len);
+        packet.write(bytes, off, len);
+    }
+
+    private static String readString(DataInputStream body) throws IOException {
+        byte[] bytes = new byte[body.readInt()];
+        body.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static SftpException lost(IOException e) {
+        return new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST, e.getMessage(), e);
+    }
+
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        channel.disconnect();
+        if (onClose != null) {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package me.meilon.jsftp.core.protocol;
+
+import com.jcraft.jsch.Buffer;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+
+/**
+ * sftp 协议的响应报文
+ * @author meilon
+ */
+@Slf4j
+public class SftpResponse {
+
+    private final int type;
+
+    private final int id;
+
+    private int status = ChannelSftp.SSH_FX_OK;
+
+    private String message;
+
+    private byte[] handle;
+
+    private byte[] data;
+
+    SftpResponse(int type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * 报文类型, 如 SSH_FXP_STATUS, SSH_FXP_HANDLE
+     * @return 报文类型
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * 对应请求的 request-id
+     * @return request-id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 状态码, 仅 SSH_FXP_STATUS 报文有效, 其他报文为 SSH_FX_OK
+     * @return 状态码
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 文件句柄, 仅 SSH_FXP_HANDLE 报文有效
+     * @return 文件句柄
+     */
+    public byte[] getHandle() {
+        return handle;
+    }
+
+    /**
+     * 数据, SSH_FXP_DATA 报文为读取到的数据, SSH_FXP_EXTENDED_REPLY 报文为扩展响应的内容
+     * @return 数据
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * 文件属性, 仅 SSH_FXP_ATTRS 报文有效
+     * @return 文件属性, 不是属性报文时返回 null
+     * @throws SftpException 解析失败时抛出异常
+     */
+    public SftpATTRS getAttrs() throws SftpException {
+        if (type != SftpPacketChannel.SSH_FXP_ATTRS || data == null) {
+            return null;
+        }
+        Method decoder = AttrsDecoder.METHOD;
+        if (decoder == null) {
+            throw new SftpException(ChannelSftp.SSH_FX_OP_UNSUPPORTED, "decode attrs is not supported by this jsch");
+        }
+        try {
+            return (SftpATTRS) decoder.invoke(null, new Buffer(data));
+        } catch (ReflectiveOperationException e) {
+            throw new SftpException(ChannelSftp.SSH_FX_BAD_MESSAGE, "decode attrs failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 当前使用的 JSch 是否支持解析 ATTRS 报文
+     * 不支持时 {@link #getAttrs()} 抛出 SSH_FX_OP_UNSUPPORTED 异常, 需要文件属性的操作应改用 {@link ChannelSftp}
+     * @return true: 支持
+     */
+    public static boolean isAttrsSupported() {
+        return AttrsDecoder.METHOD != null;
+    }
+
+    /**
+     * 是否为成功的响应
+     * @return true: 成功, false: 服务端返回了错误状态
+     */
+    public boolean isOk() {
+        return status == ChannelSftp.SSH_FX_OK;
+    }
+
+    /**
+     * 如果服务端返回了错误状态则抛出异常
+     * @throws SftpException 服务端返回了错误状态
+     */
+    public void check() throws SftpException {
+        if (!isOk()) {
+            throw new SftpException(status, message);
+        }
+    }
+
+    void setStatus(int status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    void setHandle(byte[] handle) {
+        this.handle = handle;
+    }
+
+    void setData(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * JSch 解析 ATTRS 报文的方法 {@code SftpATTRS.getATTR(Buffer)} 不是公开的, 通过反射调用;
+     * 首次解析属性时才查找, 其他 JSch 版本或分支中不存在时只关闭属性解析, 不影响报文通道的其他操作
+     */
+    private static final class AttrsDecoder {
+
+        static final Method METHOD = find();
+
+        private static Method find() {
+            try {
+                Method method = SftpATTRS.class.getDeclaredMethod("getATTR", Buffer.class);
+                method.setAccessible(true);
+                return method;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.warn("SftpATTRS.getATTR(Buffer) is not accessible, decode attrs is disabled: {}", e.toString());
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package me.meilon.jsftp.core.transfer;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.exception.SftpRunException;
+import me.meilon.jsftp.core.utils.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 远程目录增量镜像到本地
+ * <p>
+ * 对比远程文件属性 (大小, 修改时间) 与本地文件, 只下载新增或有变化的文件,
+ * 下载任务分散到多个链接上并行执行; 下载完成后将本地文件的修改时间设为远程文件的修改时间,
+ * 以便下次对比; 可选删除远程已不存在的本地文件
+ * @author meilon
+ */
+@Slf4j
+public class DirectoryMirror {
+
+    private static final String TEMP_SUFFIX = ".mirroring";
+
+    private final SftpPool pool;
+
+    /**
+     * 执行下载任务的线程池, 为 null 时每次镜像临时创建
+     */
+    private final ExecutorService executor;
+
+    public DirectoryMirror(SftpPool pool) {
+        this(pool, null);
+    }
+
+    public DirectoryMirror(SftpPool pool, ExecutorService executor) {
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+    /**
+     * 将远程目录镜像到本地目录
+     *
+     * @param sftpId 指定sftp的唯一id
+     * @param remoteDir 远程目录
+     * @param localDir 本地目录, 不存在时自动创建
+     * @param options 镜像选项, 为空时使用默认选项
+     * @return 差异汇总
+     * @throws SftpException 列出远程目录失败时抛出异常
+     */
+    public MirrorSummary mirror(String sftpId, String remoteDir, String localDir,
+                                MirrorOptions options) throws SftpException {
+        long begin = System.currentTimeMillis();
+        if (options == null) {
+            options = new MirrorOptions();
+        }
+        File root = new File(localDir);
+        if (!FileUtil.createDir(root)) {
+            throw new SftpRunException(localDir + " is not directory");
+        }
+        Map<String, SftpATTRS> remoteFiles = new LinkedHashMap<>();
+        try (SftpConnect sftp = borrow(sftpId)) {
+            listRemote(sftp, remoteDir, "", options.isRecursive(), remoteFiles);
+        }
+
+        List<String> added = new ArrayList<>();
+        List<String> updated = new ArrayList<>();
+        int unchanged = 0;
+        long bytesSkipped = 0;
+        for (Map.Entry<String, SftpATTRS> entry : remoteFiles.entrySet()) {
+            File local = new File(root, entry.getKey());
+            SftpATTRS attrs = entry.getValue();
+            if (!local.isFile()) {
+                added.add(entry.getKey());
+            }
+            else if (isChanged(local, attrs, options.isCompareMtime())) {
+                updated.add(entry.getKey());
+            }
+            else {
+                unchanged++;
+                bytesSkipped += attrs.getSize();
+            }
+        }
+
+        List<String> changed = new ArrayList<>(added.size() + updated.size());
+        changed.addAll(added);
+        changed.addAll(updated);
+        List<TransferResult> results = download(sftpId, remoteDir, root, changed, remoteFiles, options.getParallelism());
+
+        List<String> deleted = new ArrayList<>();
+        if (options.isDeleteExtraneous()) {
+            deleteExtraneous(root, options.isRecursive(), remoteFiles, deleted);
+        }
+        MirrorSummary summary = new MirrorSummary(added, updated, deleted, unchanged, bytesSkipped,
+                new TransferSummary(results, System.currentTimeMillis() - begin));
+        log.info("mirror {}:{} -> {} {}", sftpId, remoteDir, localDir, summary);
+        return summary;
+    }
+
+    private List<TransferResult> download(String sftpId, String remoteDir, File root, List<String> files,
+                                          Map<String, SftpATTRS> remoteFiles, int parallelism) {
+        List<TransferResult> results = new ArrayList<>(files.size());
+        if (files.isEmpty()) {
+            return results;
+        }
+        ExecutorService service = executor == null
+                ? TransferSupport.newExecutor(pool, Math.min(parallelism, files.size())) : executor;
+        List<Future<TransferResult>> futures = new ArrayList<>(files.size());
+        try {
+            for (String file : files) {
+                String remotePath = FileUtil.unite(remoteDir, file);
+                SftpATTRS attrs = remoteFiles.get(file);
+                futures.add(service.submit(() -> download(sftpId, remotePath, new File(root, file), attrs)));
+            }
+            for (Future<TransferResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SftpRunException(e);
+        } catch (ExecutionException e) {
+            throw TransferSupport.unwrap(e.getCause());
+        } finally {
+            if (executor == null) {
+                service.shutdownNow();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 先下载到临时文件, 完成后替换本地文件, 避免其他程序读到不完整的文件
+     */
+    private TransferResult download(String sftpId, String remotePath, File local, SftpATTRS attrs) {
+        long begin = System.currentTimeMillis();
+        File temp = new File(local.getPath() + TEMP_SUFFIX);
+        SftpConnect sftp = null;
+        try {
+            File parent = local.getParentFile();
+            if (parent != null && !FileUtil.createDir(parent)) {
+                throw new SftpRunException(parent + " is not directory");
+            }
+            sftp = pool.borrowObject(sftpId);
+            sftp.download(remotePath, temp.getPath());
+            Files.move(temp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (!local.setLastModified(attrs.getMTime() * 1000L)) {
+                log.warn("set last modified time of {} failed", local);
+            }
+            sftp.close();
+            return new TransferResult(local.getPath(), remotePath, attrs.getSize(), System.currentTimeMillis() - begin, null);
+        } catch (Exception e) {
+            if (sftp != null) {
+                TransferSupport.invalidate(pool, sftp);
+            }
+            if (temp.exists() && !temp.delete()) {
+                log.warn("delete incomplete file {} failed", temp);
+            }
+            log.warn("mirror {} -> {} failed: {}", remotePath, local, e.getMessage());
+            return new TransferResult(local.getPath(), remotePath, 0, System.currentTimeMillis() - begin, e);
+        }
+    }
+
+    private static boolean isChanged(File local, SftpATTRS attrs, boolean compareMtime) {
+        if (local.length() != attrs.getSize()) {
+            return true;
+        }
+        // 远程修改时间精确到秒
+        return compareMtime && local.lastModified() / 1000 != attrs.getMTime();
+    }
+
+    /**
+     * 列出远程目录下的文件, key 为相对于镜像根目录的路径
+     */
+    private static void listRemote(SftpConnect sftp, String remoteDir, String relative,
+                                   boolean recursive, Map<String, SftpATTRS> remoteFiles) throws SftpException {
+        List<ChannelSftp.LsEntry> entries = sftp.listFiles(FileUtil.unite(remoteDir, relative));
+        for (ChannelSftp.LsEntry entry : entries) {
+            String name = entry.getFilename();
+            if (".".equals(name) || "..".equals(name)) {
+                continue;
+            }
+            String path = relative.isEmpty() ? name : relative + FileUtil.DEF_LINE_SEPARATOR + name;
+            SftpATTRS attrs = entry.getAttrs();
+            if (attrs.isDir()) {
+                if (recursive) {
+                    listRemote(sftp, remoteDir, path, true, remoteFiles);
+                }
+            }
+            else if (!attrs.isLink()) {
+                remoteFiles.put(path, attrs);
+            }
+        }
+    }
+
+    /**
+     * 删除远程已不存在的本地文件, 不删除目录
+     */
+    private static void deleteExtraneous(File root, boolean recursive,
+                                         Map<String, SftpATTRS> remoteFiles, List<String> deleted) {
+        Path rootPath = root.toPath();
+        try {
+            Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!recursive && !dir.equals(rootPath)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String relative = rootPath.relativize(file).toString()
+                            .replace(FileUtil.WIN_LINE_SEPARATOR, FileUtil.DEF_LINE_SEPARATOR);
+                    if (attrs.isRegularFile() && !remoteFiles.containsKey(relative)) {
+                        Files.delete(file);
+                        deleted.add(relative);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new SftpRunException(e);
+        }
+    }
+
+    private SftpConnect borrow(String sftpId) {
+        try {
+            return pool.borrowObject(sftpId);
+        } catch (Exception e) {
+            throw TransferSupport.unwrap(e);
+        }
+    }
+}
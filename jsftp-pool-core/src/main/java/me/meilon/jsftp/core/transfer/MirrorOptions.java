@@ -0,0 +1,37 @@
+package me.meilon.jsftp.core.transfer;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 目录镜像的选项
+ * @author meilon
+ */
+@Getter
+@Setter
+public class MirrorOptions {
+
+    /**
+     * 是否递归镜像子目录
+     * 默认 true
+     */
+    private boolean recursive = true;
+
+    /**
+     * 是否删除远程已不存在的本地文件
+     * 默认 false
+     */
+    private boolean deleteExtraneous = false;
+
+    /**
+     * 是否比较修改时间, 为 false 时只比较文件大小
+     * 默认 true
+     */
+    private boolean compareMtime = true;
+
+    /**
+     * 同时使用的链接数
+     * 默认 4
+     */
+    private int parallelism = 4;
+}
@@ -0,0 +1,103 @@
+package me.meilon.jsftp.core.transfer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 目录镜像的差异汇总
+ * @author meilon
+ */
+public class MirrorSummary {
+
+    private final List<String> added;
+
+    private final List<String> updated;
+
+    private final List<String> deleted;
+
+    private final int unchanged;
+
+    private final long bytesSkipped;
+
+    private final TransferSummary transfers;
+
+    MirrorSummary(List<String> added, List<String> updated, List<String> deleted,
+                  int unchanged, long bytesSkipped, TransferSummary transfers) {
+        this.added = Collections.unmodifiableList(added);
+        this.updated = Collections.unmodifiableList(updated);
+        this.deleted = Collections.unmodifiableList(deleted);
+        this.unchanged = unchanged;
+        this.bytesSkipped = bytesSkipped;
+        this.transfers = transfers;
+    }
+
+    /**
+     * 本地不存在, 新下载的文件, 相对路径
+     * @return 文件列表
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * 大小或修改时间有变化, 重新下载的文件, 相对路径
+     * @return 文件列表
+     */
+    public List<String> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * 远程已不存在, 被删除的本地文件, 相对路径
+     * @return 文件列表
+     */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * 没有变化, 跳过下载的文件数
+     * @return 文件数
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * 因没有变化而避免传输的字节数
+     * @return 字节数
+     */
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    /**
+     * 实际传输的字节数
+     * @return 字节数
+     */
+    public long getBytesTransferred() {
+        return transfers.getTotalBytes();
+    }
+
+    /**
+     * 每个下载文件的传输结果
+     * @return 传输结果汇总
+     */
+    public TransferSummary getTransfers() {
+        return transfers;
+    }
+
+    @Override
+    public String toString() {
+        return "MirrorSummary{" +
+                "added=" + added.size() +
+                ", updated=" + updated.size() +
+                ", deleted=" + deleted.size() +
+                ", unchanged=" + unchanged +
+                ", failure=" + transfers.getFailureCount() +
+                ", bytesTransferred=" + getBytesTransferred() +
+                ", bytesSkipped=" + bytesSkipped +
+                ", elapsedMillis=" + transfers.getElapsedMillis() +
+                '}';
+    }
+}
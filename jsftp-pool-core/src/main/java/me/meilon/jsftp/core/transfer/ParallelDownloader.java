@@ -0,0 +1,208 @@
+package me.meilon.jsftp.core.transfer;
+
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.exception.SftpRunException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 大文件分段并行下载
+ * <p>
+ * 按文件大小将远程文件切分为多个分段, 每个分段从链接池中借用一个链接,
+ * 从分段的起始偏移量开始读取, 通过 {@link FileChannel} 按位置写入同一个预分配好大小的本地文件;
+ * 分段失败时会作废当前链接, 换一个新链接从失败处继续下载
+ * @author meilon
+ */
+@Slf4j
+public class ParallelDownloader {
+
+    /**
+     * 默认的最小分段大小 8M
+     * 小于此值的分段没有并行的意义
+     */
+    public static final long DEFAULT_MIN_PART_SIZE = 8L * 1024 * 1024;
+
+    private final SftpPool pool;
+
+    /**
+     * 执行分段任务的线程池, 为 null 时每次下载临时创建
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 每个分段失败后的最大重试次数
+     */
+    private int maxRetries = 3;
+
+    /**
+     * 最小分段大小
+     */
+    private long minPartSize = DEFAULT_MIN_PART_SIZE;
+
+    /**
+     * 读取缓冲区大小
+     */
+    private int bufferSize = 32 * 1024;
+
+    public ParallelDownloader(SftpPool pool) {
+        this(pool, null);
+    }
+
+    public ParallelDownloader(SftpPool pool, ExecutorService executor) {
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setMinPartSize(long minPartSize) {
+        this.minPartSize = minPartSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 分段并行下载文件
+     * 实际分段数会根据 {@link #setMinPartSize(long)} 调整, 文件较小时退化为单链接下载
+     * 下载失败时会删除未完成的本地文件
+     *
+     * @param sftpId 指定sftp的唯一id
+     * @param remoteFilePath 远程文件地址
+     * @param localFilePath 本地文件地址
+     * @param parts 分段数, 即同时使用的链接数
+     * @return 下载的字节数
+     * @throws SftpException 获取远程文件属性失败时抛出异常
+     */
+    public long downloadParallel(String sftpId, String remoteFilePath,
+                                 String localFilePath, int parts) throws SftpException {
+        long size;
+        try (SftpConnect sftp = borrow(sftpId)) {
+            SftpATTRS attrs = sftp.getAttrs(remoteFilePath);
+            if (attrs == null || attrs.isDir()) {
+                throw new SftpRunException(remoteFilePath + " is not file");
+            }
+            size = attrs.getSize();
+            int realParts = realParts(size, parts);
+            if (realParts <= 1) {
+                sftp.download(remoteFilePath, localFilePath);
+                return size;
+            }
+            parts = realParts;
+        }
+        File localFile = new File(localFilePath);
+        boolean success = false;
+        ExecutorService service = executor == null ? TransferSupport.newExecutor(pool, parts) : executor;
+        List<Future<?>> futures = new ArrayList<>(parts);
+        try (RandomAccessFile raf = new RandomAccessFile(localFile, "rw")) {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            long partSize = (size + parts - 1) / parts;
+            for (long start = 0; start < size; start += partSize) {
+                long end = Math.min(size, start + partSize);
+                final long from = start;
+                futures.add(service.submit(() -> {
+                    downloadPart(sftpId, remoteFilePath, channel, from, end);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            channel.force(false);
+            success = true;
+            return size;
+        } catch (IOException e) {
+            throw new SftpRunException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SftpRunException(e);
+        } catch (ExecutionException e) {
+            throw TransferSupport.unwrap(e.getCause());
+        } finally {
+            if (!success) {
+                futures.forEach(f -> f.cancel(true));
+            }
+            if (executor == null) {
+                service.shutdownNow();
+            }
+            if (!success && localFile.exists() && !localFile.delete()) {
+                log.warn("delete incomplete file {} failed", localFilePath);
+            }
+        }
+    }
+
+    /**
+     * 下载一个分段, 失败时换一个新链接从失败处继续
+     * 借用链接失败 (如建立链接超时) 同样计入重试次数
+     */
+    private void downloadPart(String sftpId, String remoteFilePath,
+                              FileChannel channel, long start, long end) throws Exception {
+        long position = start;
+        int attempt = 0;
+        byte[] buffer = new byte[bufferSize];
+        while (true) {
+            SftpConnect sftp = null;
+            try {
+                sftp = borrow(sftpId);
+                try (InputStream in = sftp.openFile(remoteFilePath, position)) {
+                    while (position < end) {
+                        int len = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                        if (len < 0) {
+                            throw new SftpRunException(remoteFilePath + " unexpected end of file at " + position);
+                        }
+                        ByteBuffer buf = ByteBuffer.wrap(buffer, 0, len);
+                        while (buf.hasRemaining()) {
+                            position += channel.write(buf, position);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (sftp != null) {
+                    TransferSupport.invalidate(pool, sftp);
+                }
+                if (++attempt > maxRetries || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.warn("download part {} [{}, {}) failed at {}, retry {}: {}",
+                        remoteFilePath, start, end, position, attempt, e.getMessage());
+                continue;
+            }
+            sftp.close();
+            return;
+        }
+    }
+
+    private int realParts(long size, int parts) {
+        if (parts <= 1 || minPartSize <= 0) {
+            return Math.max(1, parts);
+        }
+        long maxParts = Math.max(1, size / minPartSize);
+        return (int) Math.min(parts, maxParts);
+    }
+
+    private SftpConnect borrow(String sftpId) {
+        try {
+            return pool.borrowObject(sftpId);
+        } catch (Exception e) {
+            throw TransferSupport.unwrap(e);
+        }
+    }
+}
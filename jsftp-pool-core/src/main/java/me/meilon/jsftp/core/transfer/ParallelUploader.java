@@ -0,0 +1,416 @@
+package me.meilon.jsftp.core.transfer;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.exception.SftpRunException;
+import me.meilon.jsftp.core.protocol.SftpPacketChannel;
+import me.meilon.jsftp.core.utils.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 大文件分段并行上传
+ * <p>
+ * 高延迟链路上单个 sftp 通道的窗口无法跑满带宽, 此类将本地文件切分为多个分段,
+ * 每个分段从链接池中借用一个链接, 通过 {@link SftpPacketChannel} 按偏移量写入同一个远程临时文件,
+ * 且每个链接上同时保持多个写请求在途;
+ * <p>
+ * 服务端不支持按偏移量写入时 (如部分对象存储网关), 如果服务端支持 copy-data 扩展,
+ * 则改为并行上传分段文件, 再在服务端合并; 否则退化为单链接上传;
+ * 所有方式都先上传到临时文件, 完成后再替换最终文件, 上传失败时已存在的最终文件保持原样;
+ * 服务端支持 posix-rename 扩展时替换是原子的, 否则见 {@link SftpConnect#replaceFile(String, String)}
+ * @author meilon
+ */
+@Slf4j
+public class ParallelUploader {
+
+    /**
+     * 默认的最小分段大小 8M
+     */
+    public static final long DEFAULT_MIN_PART_SIZE = 8L * 1024 * 1024;
+
+    private static final String TEMP_SUFFIX = ".uploading";
+
+    private final SftpPool pool;
+
+    /**
+     * 执行分段任务的线程池, 为 null 时每次上传临时创建
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 每个分段失败后的最大重试次数
+     */
+    private int maxRetries = 3;
+
+    /**
+     * 最小分段大小
+     */
+    private long minPartSize = DEFAULT_MIN_PART_SIZE;
+
+    /**
+     * 每个链接上同时在途的最大写请求数
+     */
+    private int maxInFlight = 32;
+
+    public ParallelUploader(SftpPool pool) {
+        this(pool, null);
+    }
+
+    public ParallelUploader(SftpPool pool, ExecutorService executor) {
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setMinPartSize(long minPartSize) {
+        this.minPartSize = minPartSize;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 分段并行上传文件
+     *
+     * @param sftpId 指定sftp的唯一id
+     * @param localFilePath 本地文件路径
+     * @param remotePath 远程文件路径
+     *                   注: remotePath 可以是目录, 也可以是文件
+     *                   如果是目录则按照原文件名上传至 remotePath 目录
+     *                   如果是文件则按照指定的文件名上传
+     * @param parts 分段数, 即同时使用的链接数
+     * @return 上传后的远程文件路径
+     * @throws SftpException SftpException
+     */
+    public String uploadParallel(String sftpId, String localFilePath,
+                                 String remotePath, int parts) throws SftpException {
+        File localFile = new File(localFilePath);
+        if (!localFile.isFile()) {
+            throw new SftpRunException(localFilePath + " is not found");
+        }
+        long size = localFile.length();
+        String target;
+        String temp;
+        boolean copyData = false;
+        boolean packetSupported = false;
+        int realParts = realParts(size, parts);
+        try (SftpConnect sftp = borrow(sftpId)) {
+            target = remotePath;
+            if (remotePath.endsWith(FileUtil.DEF_LINE_SEPARATOR) || sftp.isDir(remotePath)) {
+                target = FileUtil.unite(remotePath, localFile.getName());
+            }
+            temp = target + TEMP_SUFFIX;
+            SftpPacketChannel channel = realParts > 1 ? sftp.getPacketChannel() : null;
+            if (channel != null) {
+                try {
+                    // 先创建空的临时文件, 各分段打开时不再截断
+                    channel.close(channel.open(temp, SftpPacketChannel.SSH_FXF_WRITE
+                            | SftpPacketChannel.SSH_FXF_CREAT | SftpPacketChannel.SSH_FXF_TRUNC));
+                    copyData = channel.hasExtension("copy-data");
+                    packetSupported = true;
+                } catch (SftpException e) {
+                    sftp.closePacketChannel();
+                    log.warn("create {} through sftp packet channel failed, use single stream: {}", temp, e.getMessage());
+                }
+            }
+            else if (realParts > 1) {
+                log.warn("sftp packet channel {} is unavailable, use single stream", sftpId);
+            }
+        }
+        boolean success = false;
+        try {
+            if (!packetSupported) {
+                uploadSingle(sftpId, localFilePath, temp);
+            }
+            else {
+                try {
+                    uploadParts(sftpId, localFile, temp, realParts, false);
+                } catch (OffsetWriteUnsupportedException e) {
+                    log.info("{} does not support offset write, copy-data {}", sftpId, copyData);
+                    if (copyData) {
+                        uploadParts(sftpId, localFile, temp, realParts, true);
+                    }
+                    else {
+                        uploadSingle(sftpId, localFilePath, temp);
+                    }
+                } catch (PacketChannelUnavailableException e) {
+                    log.warn("sftp packet channel {} is unavailable, use single stream", sftpId);
+                    uploadSingle(sftpId, localFilePath, temp);
+                }
+            }
+            try (SftpConnect sftp = borrow(sftpId)) {
+                sftp.replaceFile(temp, target);
+            }
+            success = true;
+            return target;
+        } finally {
+            if (!success) {
+                removeQuietly(sftpId, temp);
+            }
+        }
+    }
+
+    private void uploadSingle(String sftpId, String localFilePath, String temp) throws SftpException {
+        try (SftpConnect sftp = borrow(sftpId)) {
+            sftp.getChannelSftp().put(localFilePath, temp);
+            sftp.getMetricsRecorder().recordUpload(sftpId, new File(localFilePath).length());
+        }
+    }
+
+    /**
+     * 并行上传所有分段
+     * @param partFiles true: 每个分段上传为单独的分段文件, 完成后在服务端合并; false: 按偏移量写入临时文件
+     */
+    private void uploadParts(String sftpId, File localFile, String temp,
+                             int parts, boolean partFiles) throws SftpException {
+        long size = localFile.length();
+        long partSize = (size + parts - 1) / parts;
+        ExecutorService service = executor == null ? TransferSupport.newExecutor(pool, parts) : executor;
+        List<Future<?>> futures = new ArrayList<>(parts);
+        List<String> partPaths = new ArrayList<>(parts);
+        // 每个分段的大小, 由本地文件的区间决定, 合并时不需要再查询远程文件属性
+        List<Long> partSizes = new ArrayList<>(parts);
+        boolean success = false;
+        try (RandomAccessFile raf = new RandomAccessFile(localFile, "r")) {
+            FileChannel file = raf.getChannel();
+            int index = 0;
+            for (long start = 0; start < size; start += partSize) {
+                long end = Math.min(size, start + partSize);
+                final long from = start;
+                if (partFiles) {
+                    String partPath = temp + "." + index++;
+                    partPaths.add(partPath);
+                    partSizes.add(end - from);
+                    futures.add(service.submit(() -> {
+                        withRetry(sftpId, sftp -> {
+                            sftp.getChannelSftp().put(new RangeInputStream(file, from, end), partPath);
+                            sftp.getMetricsRecorder().recordUpload(sftpId, end - from);
+                        });
+                        return null;
+                    }));
+                }
+                else {
+                    futures.add(service.submit(() -> {
+                        withRetry(sftpId, sftp -> writeRange(sftp, file, temp, from, end));
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (partFiles) {
+                joinParts(sftpId, temp, partPaths, partSizes);
+            }
+            success = true;
+        } catch (IOException e) {
+            throw new SftpRunException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SftpRunException(e);
+        } catch (ExecutionException e) {
+            throw TransferSupport.unwrap(e.getCause());
+        } finally {
+            if (!success) {
+                futures.forEach(f -> f.cancel(true));
+            }
+            if (executor == null) {
+                service.shutdownNow();
+            }
+            for (String partPath : partPaths) {
+                if (!success) {
+                    removeQuietly(sftpId, partPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按偏移量写入一个分段, 同时保持多个写请求在途
+     * 使用链接复用的报文通道, 不额外占用会话上的通道名额
+     */
+    private void writeRange(SftpConnect sftp, FileChannel file, String temp,
+                            long start, long end) throws SftpException, IOException {
+        SftpPacketChannel channel = sftp.getPacketChannel();
+        if (channel == null) {
+            throw new PacketChannelUnavailableException();
+        }
+        byte[] handle = channel.open(temp, SftpPacketChannel.SSH_FXF_WRITE);
+        try {
+            channel.write(handle, start, new RangeInputStream(file, start, end), maxInFlight);
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_OP_UNSUPPORTED) {
+                // 通道上还有未读取的响应, 链接会交还给链接池, 关闭后下次使用时重新打开
+                sftp.closePacketChannel();
+                throw new OffsetWriteUnsupportedException();
+            }
+            throw e;
+        }
+        channel.close(handle);
+        sftp.getMetricsRecorder().recordUpload(sftp.getId(), end - start);
+    }
+
+    /**
+     * 通过 copy-data 扩展在服务端按顺序合并分段文件
+     * @param partSizes 每个分段文件的大小, 与 partPaths 一一对应
+     */
+    private void joinParts(String sftpId, String temp, List<String> partPaths, List<Long> partSizes) throws SftpException {
+        try (SftpConnect sftp = borrow(sftpId)) {
+            SftpPacketChannel channel = sftp.getPacketChannel();
+            if (channel == null) {
+                throw new SftpException(ChannelSftp.SSH_FX_NO_CONNECTION, "sftp packet channel " + sftpId + " is unavailable");
+            }
+            boolean success = false;
+            try {
+                byte[] writeHandle = channel.open(temp, SftpPacketChannel.SSH_FXF_WRITE
+                        | SftpPacketChannel.SSH_FXF_CREAT | SftpPacketChannel.SSH_FXF_TRUNC);
+                long offset = 0;
+                for (int i = 0; i < partPaths.size(); i++) {
+                    String partPath = partPaths.get(i);
+                    long partSize = partSizes.get(i);
+                    byte[] readHandle = channel.open(partPath, SftpPacketChannel.SSH_FXF_READ);
+                    channel.copyData(readHandle, 0, partSize, writeHandle, offset);
+                    channel.close(readHandle);
+                    sftp.delete(partPath);
+                    offset += partSize;
+                }
+                channel.close(writeHandle);
+                success = true;
+            } finally {
+                if (!success) {
+                    // 关闭通道时服务端一并关闭打开的文件句柄
+                    sftp.closePacketChannel();
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行一个分段任务, 失败时换一个新链接重试, 借用链接失败同样计入重试次数
+     */
+    private void withRetry(String sftpId, PartTask task) throws Exception {
+        int attempt = 0;
+        while (true) {
+            SftpConnect sftp = null;
+            try {
+                sftp = borrow(sftpId);
+                task.run(sftp);
+            } catch (OffsetWriteUnsupportedException | PacketChannelUnavailableException e) {
+                sftp.close();
+                throw e;
+            } catch (Exception e) {
+                if (sftp != null) {
+                    TransferSupport.invalidate(pool, sftp);
+                }
+                if (++attempt > maxRetries || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.warn("upload part of {} failed, retry {}: {}", sftpId, attempt, e.getMessage());
+                continue;
+            }
+            sftp.close();
+            return;
+        }
+    }
+
+    private void removeQuietly(String sftpId, String path) {
+        try (SftpConnect sftp = borrow(sftpId)) {
+            if (sftp.isExist(path)) {
+                sftp.delete(path);
+            }
+        } catch (Exception e) {
+            log.warn("remove {} failed: {}", path, e.getMessage());
+        }
+    }
+
+    private int realParts(long size, int parts) {
+        if (parts <= 1 || minPartSize <= 0) {
+            return Math.max(1, parts);
+        }
+        long maxParts = Math.max(1, size / minPartSize);
+        return (int) Math.min(parts, maxParts);
+    }
+
+    private SftpConnect borrow(String sftpId) {
+        try {
+            return pool.borrowObject(sftpId);
+        } catch (Exception e) {
+            throw TransferSupport.unwrap(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PartTask {
+        void run(SftpConnect sftp) throws Exception;
+    }
+
+    /**
+     * 服务端不支持按偏移量写入
+     */
+    private static class OffsetWriteUnsupportedException extends SftpRunException {
+        OffsetWriteUnsupportedException() {
+            super("offset write is not supported");
+        }
+    }
+
+    /**
+     * 链接无法打开报文通道
+     */
+    private static class PacketChannelUnavailableException extends SftpRunException {
+        PacketChannelUnavailableException() {
+            super("sftp packet channel is unavailable");
+        }
+    }
+
+    /**
+     * 读取本地文件指定区间的输入流, 使用按位置读取, 可以多个线程共享同一个 FileChannel
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final FileChannel file;
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel file, long start, long end) {
+            this.file = file;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = file.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package me.meilon.jsftp.core.transfer;
+
+/**
+ * 单个文件的传输结果
+ * @author meilon
+ */
+public class TransferResult {
+
+    private final String localPath;
+
+    private final String remotePath;
+
+    private final long bytes;
+
+    private final long elapsedMillis;
+
+    private final Throwable error;
+
+    TransferResult(String localPath, String remotePath, long bytes, long elapsedMillis, Throwable error) {
+        this.localPath = localPath;
+        this.remotePath = remotePath;
+        this.bytes = bytes;
+        this.elapsedMillis = elapsedMillis;
+        this.error = error;
+    }
+
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    /**
+     * 传输的字节数, 失败时为 0
+     * @return 字节数
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * 失败原因, 成功时为 null
+     * @return 失败原因
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{" +
+                "localPath='" + localPath + '\'' +
+                ", remotePath='" + remotePath + '\'' +
+                ", bytes=" + bytes +
+                ", elapsedMillis=" + elapsedMillis +
+                ", error=" + error +
+                '}';
+    }
+}
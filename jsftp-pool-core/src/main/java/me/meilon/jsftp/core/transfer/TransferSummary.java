@@ -0,0 +1,81 @@
+package me.meilon.jsftp.core.transfer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量传输的汇总结果
+ * @author meilon
+ */
+public class TransferSummary {
+
+    private final List<TransferResult> results;
+
+    private final long elapsedMillis;
+
+    TransferSummary(List<TransferResult> results, long elapsedMillis) {
+        this.results = Collections.unmodifiableList(results);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * 每个文件的传输结果
+     * @return 传输结果列表
+     */
+    public List<TransferResult> getResults() {
+        return results;
+    }
+
+    /**
+     * 总耗时
+     * @return 毫秒数
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * 成功传输的总字节数
+     * @return 字节数
+     */
+    public long getTotalBytes() {
+        long total = 0;
+        for (TransferResult result : results) {
+            total += result.getBytes();
+        }
+        return total;
+    }
+
+    public int getSuccessCount() {
+        int count = 0;
+        for (TransferResult result : results) {
+            if (result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFailureCount() {
+        return results.size() - getSuccessCount();
+    }
+
+    /**
+     * 是否全部成功
+     * @return true: 全部成功
+     */
+    public boolean isSuccess() {
+        return getFailureCount() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferSummary{" +
+                "files=" + results.size() +
+                ", success=" + getSuccessCount() +
+                ", failure=" + getFailureCount() +
+                ", totalBytes=" + getTotalBytes() +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package me.meilon.jsftp.core.transfer;
+
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.exception.SftpRunException;
+import me.meilon.jsftp.core.utils.ThreadUtil;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 并行传输的公共方法
+ * @author meilon
+ */
+@Slf4j
+final class TransferSupport {
+
+    private TransferSupport() {
+    }
+
+    /**
+     * 创建一个传输用的线程池
+     * 按链接池配置的线程类型使用守护线程或虚拟线程
+     * @param pool 链接池
+     * @param threads 线程数
+     * @return 线程池
+     * @see SftpPool#getThreadMode()
+     */
+    static ExecutorService newExecutor(SftpPool pool, int threads) {
+        return ThreadUtil.newExecutor("jsftp-transfer", threads, pool.getThreadMode());
+    }
+
+    /**
+     * 作废一个出错的链接, 使链接池不再分配此链接
+     * @param pool 链接池
+     * @param sftp 出错的链接
+     */
+    static void invalidate(SftpPool pool, SftpConnect sftp) {
+        try {
+            pool.invalidateObject(sftp.getId(), sftp);
+        } catch (Exception e) {
+            log.warn("invalidate sftp {} failed: {}", sftp.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 将并行任务中的异常转换为运行时异常
+     * @param e 任务异常
+     * @return 运行时异常
+     */
+    static RuntimeException unwrap(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        return new SftpRunException(e);
+    }
+}
@@ -0,0 +1,224 @@
+package me.meilon.jsftp.core.transfer;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import me.meilon.jsftp.core.exception.SftpRunException;
+import me.meilon.jsftp.core.utils.FileUtil;
+import me.meilon.jsftp.core.utils.ThreadUtil;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 目录树并行上传
+ * <p>
+ * 递归遍历本地目录, 先用一个链接按从上到下的顺序创建所有远程目录, 每个目录只创建一次;
+ * 再将文件上传任务交给 work-stealing 线程池, 分散到多个链接上并行上传;
+ * 单个文件失败不会中断其他文件, 所有文件的结果汇总在 {@link TransferSummary} 中
+ * @author meilon
+ */
+@Slf4j
+public class TreeUploader {
+
+    private final SftpPool pool;
+
+    /**
+     * 执行上传任务的线程池, 为 null 时每次上传临时创建 work-stealing 线程池
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 同时使用的链接数
+     */
+    private int parallelism = 4;
+
+    /**
+     * 每个文件失败后的最大重试次数
+     */
+    private int maxRetries = 2;
+
+    public TreeUploader(SftpPool pool) {
+        this(pool, null);
+    }
+
+    public TreeUploader(SftpPool pool, ExecutorService executor) {
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * 递归上传本地目录到远程目录
+     * 本地目录下的子目录结构会在远程目录下原样创建
+     *
+     * @param sftpId 指定sftp的唯一id
+     * @param localDir 本地目录
+     * @param remoteDir 远程目录, 不存在时自动创建
+     * @param filter 文件过滤器, 只作用于文件, 可以为空, 为空则不做过滤
+     * @return 上传结果汇总
+     * @throws SftpException 创建远程目录失败时抛出异常
+     */
+    public TransferSummary uploadTree(String sftpId, String localDir,
+                                      String remoteDir, FileFilter filter) throws SftpException {
+        long begin = System.currentTimeMillis();
+        File root = new File(localDir);
+        if (!root.isDirectory()) {
+            throw new SftpRunException(localDir + " is not directory");
+        }
+        List<String> dirs = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        walk(root.toPath(), filter, dirs, files);
+
+        try (SftpConnect sftp = borrow(sftpId)) {
+            sftp.mkdirs(remoteDir);
+            // 先序遍历保证父目录总是先于子目录创建
+            for (String dir : dirs) {
+                sftp.mkdir(FileUtil.unite(remoteDir, dir));
+            }
+        }
+
+        ExecutorService service = executor == null ? newExecutor() : executor;
+        List<Future<TransferResult>> futures = new ArrayList<>(files.size());
+        List<TransferResult> results = new ArrayList<>(files.size());
+        try {
+            for (File file : files) {
+                String remotePath = FileUtil.unite(remoteDir, relativize(root, file));
+                futures.add(service.submit(() -> upload(sftpId, file, remotePath)));
+            }
+            for (Future<TransferResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SftpRunException(e);
+        } catch (ExecutionException e) {
+            throw TransferSupport.unwrap(e.getCause());
+        } finally {
+            if (executor == null) {
+                service.shutdownNow();
+            }
+        }
+        TransferSummary summary = new TransferSummary(results, System.currentTimeMillis() - begin);
+        log.info("upload tree {} -> {}:{} {}", localDir, sftpId, remoteDir, summary);
+        return summary;
+    }
+
+    private TransferResult upload(String sftpId, File file, String remotePath) {
+        long begin = System.currentTimeMillis();
+        int attempt = 0;
+        while (true) {
+            SftpConnect sftp;
+            try {
+                sftp = pool.borrowObject(sftpId);
+            } catch (Exception e) {
+                return new TransferResult(file.getPath(), remotePath, 0, System.currentTimeMillis() - begin, e);
+            }
+            try {
+                sftp.getChannelSftp().put(file.getPath(), remotePath);
+                sftp.invalidateAttrs(remotePath);
+                sftp.getMetricsRecorder().recordUpload(sftpId, file.length());
+            } catch (Exception e) {
+                if (e instanceof SftpException && ((SftpException) e).id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    recreateParentDir(sftp, remotePath);
+                }
+                TransferSupport.invalidate(pool, sftp);
+                if (++attempt > maxRetries || Thread.currentThread().isInterrupted()) {
+                    log.warn("upload {} -> {} failed: {}", file, remotePath, e.getMessage());
+                    return new TransferResult(file.getPath(), remotePath, 0, System.currentTimeMillis() - begin, e);
+                }
+                continue;
+            }
+            sftp.close();
+            return new TransferResult(file.getPath(), remotePath, file.length(), System.currentTimeMillis() - begin, null);
+        }
+    }
+
+    /**
+     * 记录为已存在的远程目录被其他客户端删除时, 重新创建目录, 由下一次重试完成上传
+     */
+    private static void recreateParentDir(SftpConnect sftp, String remotePath) {
+        try {
+            sftp.recreateParentDir(remotePath);
+        } catch (Exception e) {
+            log.debug("recreate parent dir of {} failed: {}", remotePath, e.getMessage());
+        }
+    }
+
+    /**
+     * 先序遍历本地目录, 收集相对路径的目录列表和文件列表
+     */
+    private static void walk(Path root, FileFilter filter, List<String> dirs, List<File> files) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root)) {
+                        dirs.add(relativize(root.toFile(), dir.toFile()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    File file = path.toFile();
+                    if (attrs.isRegularFile() && (filter == null || filter.accept(file))) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new SftpRunException(e);
+        }
+    }
+
+    /**
+     * 获取相对于根目录的路径, 统一使用 "/" 作为分隔符
+     */
+    private static String relativize(File root, File file) {
+        String path = root.toPath().relativize(file.toPath()).toString();
+        return path.replace(FileUtil.WIN_LINE_SEPARATOR, FileUtil.DEF_LINE_SEPARATOR);
+    }
+
+    /**
+     * 平台线程时使用 work-stealing 线程池, 虚拟线程时使用 parallelism 个虚拟线程
+     */
+    private ExecutorService newExecutor() {
+        if (pool.getThreadMode() == ThreadMode.VIRTUAL && ThreadUtil.isVirtualThreadSupported()) {
+            return TransferSupport.newExecutor(pool, parallelism);
+        }
+        return Executors.newWorkStealingPool(Math.max(1, parallelism));
+    }
+
+    private SftpConnect borrow(String sftpId) {
+        try {
+            return pool.borrowObject(sftpId);
+        } catch (Exception e) {
+            throw TransferSupport.unwrap(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package me.meilon.jsftp.core.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.conf.ThreadMode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程工具类
+ * 按 {@link ThreadMode} 创建平台线程或虚拟线程
+ * @author meilon
+ */
+@Slf4j
+public class ThreadUtil {
+
+    private static volatile boolean fallbackLogged = false;
+
+    private ThreadUtil() {
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     * @return true: 支持
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreadSupport.isSupported();
+    }
+
+    /**
+     * 判断线程是否是虚拟线程
+     * @param thread 线程
+     * @return true: 是虚拟线程
+     */
+    public static boolean isVirtual(Thread thread) {
+        return VirtualThreadSupport.isVirtual(thread);
+    }
+
+    /**
+     * 创建线程工厂
+     * 平台线程为守护线程; 不支持虚拟线程时退回平台线程
+     * @param prefix 线程名前缀, 线程名为 prefix-序号
+     * @param mode 线程类型
+     * @return 线程工厂
+     */
+    public static ThreadFactory newThreadFactory(String prefix, ThreadMode mode) {
+        if (isVirtual(mode)) {
+            return VirtualThreadSupport.factory(prefix);
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * 创建固定线程数的线程池
+     * 虚拟线程创建成本很低, 虚拟线程模式下可以设置远大于 CPU 核数的线程数,
+     * 实际并发数仍受链接池大小限制
+     * @param prefix 线程名前缀
+     * @param threads 线程数
+     * @param mode 线程类型
+     * @return 线程池
+     */
+    public static ExecutorService newExecutor(String prefix, int threads, ThreadMode mode) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), newThreadFactory(prefix, mode));
+    }
+
+    /**
+     * 是否实际使用虚拟线程
+     */
+    private static boolean isVirtual(ThreadMode mode) {
+        if (mode != ThreadMode.VIRTUAL) {
+            return false;
+        }
+        if (VirtualThreadSupport.isSupported()) {
+            return true;
+        }
+        if (!fallbackLogged) {
+            fallbackLogged = true;
+            log.warn("virtual threads are not supported by java {}, use platform threads",
+                    System.getProperty("java.version"));
+        }
+        return false;
+    }
+}
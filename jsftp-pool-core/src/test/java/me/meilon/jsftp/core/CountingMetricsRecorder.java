@@ -0,0 +1,71 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.metrics.SftpMetricsRecorder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试使用的指标记录, 统计每种操作的次数, 用于确认发送了哪些请求
+ * @author meilon
+ */
+public class CountingMetricsRecorder implements SftpMetricsRecorder {
+
+    private final Map<String, AtomicInteger> operations = new ConcurrentHashMap<>();
+
+    private final AtomicInteger creates = new AtomicInteger();
+
+    private final List<String> circuitStates = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void recordCreate(String sftpId, long nanos, boolean success) {
+        if (success) {
+            creates.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void recordOperation(String sftpId, String operation, long nanos, boolean success) {
+        operations.computeIfAbsent(operation, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    @Override
+    public void recordCircuitState(String sftpId, String state) {
+        circuitStates.add(state);
+    }
+
+    /**
+     * 指定操作的次数, 包括失败的操作
+     * @param operation 操作名
+     * @return 次数
+     */
+    public int count(String operation) {
+        AtomicInteger count = operations.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * 成功创建的链接数
+     * @return 链接数
+     */
+    public int getCreates() {
+        return creates.get();
+    }
+
+    /**
+     * 熔断器依次进入的状态
+     * @return 状态名
+     */
+    public List<String> getCircuitStates() {
+        return circuitStates;
+    }
+
+    public void reset() {
+        operations.clear();
+        creates.set(0);
+        circuitStates.clear();
+    }
+}
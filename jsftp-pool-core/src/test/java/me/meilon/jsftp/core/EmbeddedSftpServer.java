@@ -0,0 +1,177 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.apache.commons.io.FileUtils;
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelFactory;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.channel.ChannelSessionFactory;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 测试使用的进程内 sftp 服务端, 监听 127.0.0.1
+ * 根目录是一个临时目录, 关闭时删除
+ * @author meilon
+ */
+public class EmbeddedSftpServer implements Closeable {
+
+    public static final String SFTP_ID = "test";
+    public static final String USER = "test";
+    public static final String PASSWORD = "test";
+
+    private final SshServer sshd;
+
+    private final Path root;
+
+    private EmbeddedSftpServer(SshServer sshd, Path root) {
+        this.sshd = sshd;
+        this.root = root;
+    }
+
+    public static EmbeddedSftpServer start() throws IOException {
+        return start(0, 0, null);
+    }
+
+    public static EmbeddedSftpServer start(SftpEventListener listener) throws IOException {
+        return start(0, 0, listener);
+    }
+
+    /**
+     * 启动服务端
+     * @param port 监听端口, 0 表示随机端口
+     * @param maxChannels 每个会话最多打开的通道数, 0 表示不限制
+     * @param listener sftp 请求监听, 可以为 null
+     * @return 已启动的服务端
+     * @throws IOException 启动失败
+     */
+    public static EmbeddedSftpServer start(int port, int maxChannels, SftpEventListener listener) throws IOException {
+        Path root = Files.createTempDirectory("jsftp-test");
+        SshServer sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("127.0.0.1");
+        sshd.setPort(port);
+        // jsch 0.1.55 只支持 ssh-rsa 主机密钥
+        SimpleGeneratorHostKeyProvider keyProvider = new SimpleGeneratorHostKeyProvider();
+        keyProvider.setAlgorithm("RSA");
+        sshd.setKeyPairProvider(keyProvider);
+        sshd.setPasswordAuthenticator((user, password, session) -> USER.equals(user) && PASSWORD.equals(password));
+        SftpSubsystemFactory sftpFactory = new SftpSubsystemFactory();
+        if (listener != null) {
+            sftpFactory.addSftpEventListener(listener);
+        }
+        sshd.setSubsystemFactories(Collections.singletonList(sftpFactory));
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        if (maxChannels > 0) {
+            sshd.setChannelFactories(Collections.singletonList(new LimitedSessionChannelFactory(maxChannels)));
+        }
+        sshd.start();
+        return new EmbeddedSftpServer(sshd, root);
+    }
+
+    /**
+     * 创建连接到此服务端的链接池工厂, sftpId 为 {@link #SFTP_ID}
+     * @param poolConfig 链接池配置
+     * @return 链接池工厂
+     */
+    public SftpPooledFactory newFactory(SftpPoolConfig poolConfig) {
+        SftpPooledFactory factory = new SftpPooledFactory(poolConfig);
+        factory.setSftpConnConfig("127.0.0.1", getPort(), USER, PASSWORD, SFTP_ID);
+        return factory;
+    }
+
+    public int getPort() {
+        return sshd.getPort();
+    }
+
+    /**
+     * 服务端根目录在本地的路径, 可以直接在本地准备和检查测试文件
+     * @return 根目录
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * 当前已建立的 ssh 会话数
+     * @return 会话数
+     */
+    public int getSessionCount() {
+        return sshd.getActiveSessions().size();
+    }
+
+    /**
+     * 从服务端断开所有 ssh 会话, 模拟网络中断
+     */
+    public void closeSessions() {
+        sshd.getActiveSessions().forEach(session -> session.close(true));
+    }
+
+    /**
+     * 等待条件成立, 用于等待服务端感知客户端的异步操作
+     * @param condition 条件
+     * @return 超时前条件是否成立
+     */
+    public static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sshd.stop(true);
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    /**
+     * 限制每个会话上同时打开的通道数
+     * 与 OpenSSH 的 MaxSessions 一样, 超出时拒绝打开通道, 会话保持可用
+     * (sshd 自带的 max-sshd-channels 超出时会直接断开会话)
+     */
+    private static class LimitedSessionChannelFactory implements ChannelFactory {
+
+        private final int maxChannels;
+
+        private final Map<Session, AtomicInteger> channels = new ConcurrentHashMap<>();
+
+        LimitedSessionChannelFactory(int maxChannels) {
+            this.maxChannels = maxChannels;
+        }
+
+        @Override
+        public String getName() {
+            return ChannelSessionFactory.INSTANCE.getName();
+        }
+
+        @Override
+        public Channel createChannel(Session session) throws IOException {
+            AtomicInteger count = channels.computeIfAbsent(session, k -> new AtomicInteger());
+            if (count.incrementAndGet() > maxChannels) {
+                count.decrementAndGet();
+                // 返回 null 时 sshd 回复 SSH_MSG_CHANNEL_OPEN_FAILURE
+                return null;
+            }
+            Channel channel = ChannelSessionFactory.INSTANCE.createChannel(session);
+            channel.addCloseFutureListener(future -> count.decrementAndGet());
+            return channel;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.ChannelSftp;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 流式列出目录, 预读和不预读时结果一致, 提前关闭后链接可以继续使用
+ * @author meilon
+ */
+public class LsEntryIteratorTest {
+
+    private static final int FILES = 300;
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSftpServer.start();
+        pool = server.newFactory(SftpPoolConfig.builder()
+                .setMaxTotalPerKey(1)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build()).getSftpPool();
+        Path dir = Files.createDirectory(server.getRoot().resolve("d"));
+        for (int i = 0; i < FILES; i++) {
+            Files.createFile(dir.resolve("f" + i));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void listsAllEntriesWithPrefetch() throws Exception {
+        assertEquals(FILES, count(16));
+    }
+
+    @Test
+    public void listsAllEntriesWithoutPrefetch() throws Exception {
+        assertEquals(FILES, count(0));
+    }
+
+    @Test
+    public void closeBeforeEndReleasesConnection() throws Exception {
+        for (int capacity : new int[]{0, 16}) {
+            try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+                try (Stream<ChannelSftp.LsEntry> stream = sftp.streamFiles("/d", capacity)) {
+                    Iterator<ChannelSftp.LsEntry> it = stream.iterator();
+                    for (int i = 0; i < 3; i++) {
+                        assertTrue(it.hasNext());
+                        it.next();
+                    }
+                }
+                // 后台线程已经结束, 链接可以用于其他操作
+                assertTrue(sftp.isDir("/d"));
+            }
+        }
+    }
+
+    private long count(int capacity) throws Exception {
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID);
+             Stream<ChannelSftp.LsEntry> stream = sftp.streamFiles("/d", capacity)) {
+            return stream.count();
+        }
+    }
+}
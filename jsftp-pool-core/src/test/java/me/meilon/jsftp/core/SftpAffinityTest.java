@@ -0,0 +1,97 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 线程亲和的借用快速路径, 暂存的链接单独统计, 并在等待, 空闲检测和调整容量时交还给链接池
+ * @author meilon
+ */
+public class SftpAffinityTest {
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSftpServer.start();
+        pool = server.newFactory(SftpPoolConfig.builder()
+                .setMaxTotalPerKey(1)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .setThreadAffinity(true)
+                .build()).getSftpPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void parkedConnectionIsNotInUse() throws Exception {
+        SftpConnect first = pool.borrowObject(SFTP_ID);
+        assertEquals(1, pool.getNumInUse(SFTP_ID));
+        first.close();
+        assertEquals(1, pool.getNumParked(SFTP_ID));
+        assertEquals(0, pool.getNumInUse(SFTP_ID));
+        assertEquals(0, pool.getNumInUse());
+
+        try (SftpConnect again = pool.borrowObject(SFTP_ID)) {
+            assertSame(first, again);
+            assertEquals(0, pool.getNumParked(SFTP_ID));
+            assertEquals(1, pool.getNumInUse(SFTP_ID));
+        }
+    }
+
+    @Test
+    public void returnWakesWaitingBorrower() throws Exception {
+        SftpConnect held = pool.borrowObject(SFTP_ID);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SftpConnect> waiting = executor.submit(() -> pool.borrowObject(SFTP_ID));
+            assertTrue(EmbeddedSftpServer.await(() -> pool.getNumWaiters() == 1));
+            held.close();
+            // 有线程在等待时归还的链接直接交还给链接池
+            SftpConnect handed = waiting.get(1, TimeUnit.SECONDS);
+            assertSame(held, handed);
+            assertEquals(0, pool.getNumParked(SFTP_ID));
+            handed.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void evictReleasesParkedConnections() throws Exception {
+        pool.borrowObject(SFTP_ID).close();
+        assertEquals(1, pool.getNumParked(SFTP_ID));
+        pool.evict();
+        assertEquals(0, pool.getNumParked(SFTP_ID));
+        assertEquals(1, pool.getNumIdle(SFTP_ID));
+        assertEquals(0, pool.getNumActive(SFTP_ID));
+    }
+
+    @Test
+    public void shrinkDestroysParkedConnections() throws Exception {
+        pool.borrowObject(SFTP_ID).close();
+        pool.resize(1, 0);
+        assertEquals(0, pool.getNumParked(SFTP_ID));
+        assertEquals(0, pool.getNumIdle(SFTP_ID));
+        assertEquals(1, pool.getDestroyedCount());
+    }
+}
@@ -0,0 +1,178 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 批量元数据操作, 通过报文通道执行和退化为 {@link ChannelSftp} 执行的结果一致
+ * @author meilon
+ */
+public class SftpBatchTest {
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    /**
+     * @param maxChannels 每个会话最多打开的通道数, 为 1 时无法打开报文通道
+     */
+    private void start(int maxChannels) throws Exception {
+        server = EmbeddedSftpServer.start(0, maxChannels, null);
+        pool = server.newFactory(SftpPoolConfig.builder()
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build()).getSftpPool();
+        Path dir = Files.createDirectory(server.getRoot().resolve("b"));
+        for (String name : new String[]{"a.txt", "b.txt", "c.txt", "g*h", "gxh", "q?", "qq"}) {
+            Files.write(dir.resolve(name), name.getBytes());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void resultsFollowAddOrder() throws Exception {
+        start(0);
+        assertResultsFollowAddOrder();
+    }
+
+    @Test
+    public void fallbackResultsFollowAddOrder() throws Exception {
+        start(1);
+        assertPacketChannelUnavailable();
+        assertResultsFollowAddOrder();
+    }
+
+    @Test
+    public void manyOperationsWithLimitedInFlight() throws Exception {
+        start(0);
+        for (int i = 0; i < 50; i++) {
+            Files.write(server.getRoot().resolve("b/f" + i), new byte[i]);
+        }
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            SftpBatch batch = sftp.batch(4);
+            for (int i = 0; i < 50; i++) {
+                batch.stat("/b/f" + i);
+            }
+            List<BatchResult> results = batch.execute();
+            assertEquals(50, results.size());
+            assertEquals(0, batch.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals("/b/f" + i, results.get(i).getPath());
+                assertEquals(i, results.get(i).getAttrs().getSize());
+            }
+        }
+    }
+
+    @Test
+    public void wildcardsAreLiteral() throws Exception {
+        start(0);
+        assertWildcardsAreLiteral();
+    }
+
+    @Test
+    public void fallbackWildcardsAreLiteral() throws Exception {
+        start(1);
+        assertPacketChannelUnavailable();
+        assertWildcardsAreLiteral();
+    }
+
+    @Test
+    public void quoteEscapesGlobCharacters() {
+        assertEquals("/data/a.txt", SftpBatch.quote("/data/a.txt"));
+        assertEquals("/data/a\\*b\\?c\\\\d", SftpBatch.quote("/data/a*b?c\\d"));
+    }
+
+    private void assertResultsFollowAddOrder() throws Exception {
+        Path dir = server.getRoot().resolve("b");
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.cd("/b");
+            List<BatchResult> results = sftp.batch()
+                    .stat("a.txt")
+                    .delete("b.txt")
+                    .rename("c.txt", "d.txt")
+                    .stat("missing.txt")
+                    .chmod("a.txt", 0600)
+                    .delete("missing.txt")
+                    .execute();
+
+            assertEquals(6, results.size());
+            // 相对路径在客户端转换为绝对路径
+            assertResult(results.get(0), SftpBatch.STAT, "/b/a.txt", ChannelSftp.SSH_FX_OK);
+            assertEquals(5, results.get(0).getAttrs().getSize());
+            assertResult(results.get(1), SftpBatch.DELETE, "/b/b.txt", ChannelSftp.SSH_FX_OK);
+            assertResult(results.get(2), SftpBatch.RENAME, "/b/c.txt", ChannelSftp.SSH_FX_OK);
+            assertEquals("/b/d.txt", results.get(2).getTarget());
+            assertResult(results.get(3), SftpBatch.STAT, "/b/missing.txt", ChannelSftp.SSH_FX_NO_SUCH_FILE);
+            assertNull(results.get(3).getAttrs());
+            assertResult(results.get(4), SftpBatch.CHMOD, "/b/a.txt", ChannelSftp.SSH_FX_OK);
+            assertResult(results.get(5), SftpBatch.DELETE, "/b/missing.txt", ChannelSftp.SSH_FX_NO_SUCH_FILE);
+
+            assertFalse(Files.exists(dir.resolve("b.txt")));
+            assertFalse(Files.exists(dir.resolve("c.txt")));
+            assertTrue(Files.exists(dir.resolve("d.txt")));
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir.resolve("a.txt"))));
+            // 单个操作失败不影响链接
+            assertEquals("/b", sftp.pwd());
+            assertTrue(sftp.isFile("/b/d.txt"));
+        }
+    }
+
+    private void assertWildcardsAreLiteral() throws Exception {
+        Path dir = server.getRoot().resolve("b");
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            List<BatchResult> results = sftp.batch()
+                    .stat("/b/g*h")
+                    .delete("/b/g*h")
+                    .rename("/b/q?", "/b/r*")
+                    .execute();
+            for (BatchResult result : results) {
+                assertTrue(result.toString(), result.isSuccess());
+            }
+            assertNotNull(results.get(0).getAttrs());
+            assertEquals(3, results.get(0).getAttrs().getSize());
+        }
+        assertFalse(Files.exists(dir.resolve("g*h")));
+        assertTrue(Files.exists(dir.resolve("gxh")));
+        assertFalse(Files.exists(dir.resolve("q?")));
+        assertTrue(Files.exists(dir.resolve("qq")));
+        assertTrue(Files.exists(dir.resolve("r*")));
+    }
+
+    private void assertPacketChannelUnavailable() throws Exception {
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.openPacketChannel();
+            fail("packet channel should be rejected by the server");
+        } catch (SftpException e) {
+            // 服务端限制了通道数
+        }
+    }
+
+    private static void assertResult(BatchResult result, String operation, String path, int status) {
+        assertEquals(result.toString(), operation, result.getOperation());
+        assertEquals(result.toString(), path, result.getPath());
+        assertEquals(result.toString(), status, result.getStatus());
+    }
+}
@@ -0,0 +1,149 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.JSchException;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import me.meilon.jsftp.core.exception.SftpCircuitOpenException;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 熔断器的状态变化
+ * @author meilon
+ */
+public class SftpCircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 100;
+
+    private final CountingMetricsRecorder metrics = new CountingMetricsRecorder();
+
+    private final SftpCircuitBreaker breaker = new SftpCircuitBreaker("127.0.0.1:22", 2,
+            TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS), () -> metrics);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.acquire(SFTP_ID);
+        breaker.onFailure(SFTP_ID);
+        breaker.acquire(SFTP_ID);
+        breaker.onSuccess(SFTP_ID);
+        // 成功后重新计数
+        breaker.acquire(SFTP_ID);
+        breaker.onFailure(SFTP_ID);
+        assertEquals(SftpCircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.acquire(SFTP_ID);
+        breaker.onFailure(SFTP_ID);
+        assertEquals(SftpCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isRejecting());
+        assertRejected();
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() throws Exception {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertFalse(breaker.isRejecting());
+
+        breaker.acquire(SFTP_ID);
+        assertEquals(SftpCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // 探测结束前其他调用者继续被拒绝
+        assertRejected();
+
+        breaker.onSuccess(SFTP_ID);
+        assertEquals(SftpCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire(SFTP_ID);
+        assertEquals(Arrays.asList("OPEN", "HALF_OPEN", "CLOSED"), metrics.getCircuitStates());
+    }
+
+    @Test
+    public void failedProbeReopens() throws Exception {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.acquire(SFTP_ID);
+        breaker.onFailure(SFTP_ID);
+        assertEquals(SftpCircuitBreaker.State.OPEN, breaker.getState());
+        assertRejected();
+        assertEquals(Arrays.asList("OPEN", "HALF_OPEN", "OPEN"), metrics.getCircuitStates());
+    }
+
+    @Test
+    public void abortedProbeLetsNextCallerProbe() throws Exception {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.acquire(SFTP_ID);
+        breaker.onAbort();
+        assertEquals(SftpCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquire(SFTP_ID);
+        breaker.onSuccess(SFTP_ID);
+        assertEquals(SftpCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void poolFailsFastWhileHostIsDownAndRecovers() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        SftpPooledFactory factory = new SftpPooledFactory(SftpPoolConfig.builder()
+                .setCircuitBreakerFailureThreshold(2)
+                .setCircuitBreakerOpenTimeMillis(OPEN_MILLIS)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build());
+        factory.setSftpConnConfig("127.0.0.1", port, EmbeddedSftpServer.USER, EmbeddedSftpServer.PASSWORD, SFTP_ID);
+        factory.setMetricsRecorder(metrics);
+        SftpPool pool = factory.getSftpPool();
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    pool.borrowObject(SFTP_ID);
+                    fail("connection should be refused");
+                } catch (JSchException e) {
+                    // 目标主机不可达
+                }
+            }
+            assertEquals(SftpCircuitBreaker.State.OPEN, factory.getCircuitBreaker(SFTP_ID).getState());
+            try {
+                pool.borrowObject(SFTP_ID);
+                fail("circuit should be open");
+            } catch (SftpCircuitOpenException e) {
+                // 冷却时间内直接拒绝
+            }
+
+            Thread.sleep(OPEN_MILLIS + 20);
+            try (EmbeddedSftpServer server = EmbeddedSftpServer.start(port, 0, null)) {
+                SftpConnect sftp = pool.borrowObject(SFTP_ID);
+                assertTrue(sftp.isConnected());
+                pool.invalidateObject(SFTP_ID, sftp);
+            }
+            assertEquals(SftpCircuitBreaker.State.CLOSED, factory.getCircuitBreaker(SFTP_ID).getState());
+        } finally {
+            pool.close();
+        }
+    }
+
+    private void open() {
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire(SFTP_ID);
+            breaker.onFailure(SFTP_ID);
+        }
+        assertEquals(SftpCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void assertRejected() {
+        try {
+            breaker.acquire(SFTP_ID);
+            fail("circuit should reject");
+        } catch (SftpCircuitOpenException e) {
+            // 预期被拒绝
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.SftpException;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 复制文件, 通过报文通道复制和退化为 sftp 通道复制时, 失败都不影响已存在的目标文件
+ * @author meilon
+ */
+public class SftpCopyTest {
+
+    private final CountingMetricsRecorder metrics = new CountingMetricsRecorder();
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    private Path dir;
+
+    /**
+     * @param maxChannels 每个会话最多打开的通道数, 为 1 时无法打开报文通道
+     */
+    private void start(int maxChannels) throws Exception {
+        server = EmbeddedSftpServer.start(0, maxChannels, null);
+        SftpPooledFactory factory = server.newFactory(SftpPoolConfig.builder()
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build());
+        factory.setMetricsRecorder(metrics);
+        pool = factory.getSftpPool();
+        dir = Files.createDirectory(server.getRoot().resolve("c"));
+        Files.write(dir.resolve("to.txt"), "old".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void missingSourceKeepsTarget() throws Exception {
+        start(0);
+        assertMissingSourceKeepsTarget();
+    }
+
+    @Test
+    public void fallbackMissingSourceKeepsTarget() throws Exception {
+        start(1);
+        assertMissingSourceKeepsTarget();
+    }
+
+    @Test
+    public void copyOverwritesTarget() throws Exception {
+        start(0);
+        assertCopyOverwritesTarget();
+    }
+
+    @Test
+    public void fallbackCopyOverwritesTarget() throws Exception {
+        start(1);
+        assertCopyOverwritesTarget();
+    }
+
+    @Test
+    public void copyIsRecordedAsOneOperation() throws Exception {
+        start(1);
+        assertCopyOverwritesTarget();
+        assertEquals(1, metrics.count("copy"));
+        assertEquals(0, metrics.count("get"));
+        assertEquals(0, metrics.count("put"));
+        assertEquals(0, metrics.count("rename"));
+    }
+
+    @Test
+    public void failedReplaceRestoresTarget() throws Exception {
+        start(0);
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.replaceFile("/c/missing.txt", "/c/to.txt");
+            fail("source does not exist");
+        } catch (SftpException e) {
+            // 源文件不存在
+        }
+        assertEquals("old", read("to.txt"));
+        assertOnlyFiles("to.txt");
+    }
+
+    private void assertMissingSourceKeepsTarget() throws Exception {
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.copyfile("/c/missing.txt", "/c/to.txt");
+            fail("source does not exist");
+        } catch (SftpException e) {
+            // 源文件不存在
+        }
+        assertEquals("old", read("to.txt"));
+        assertOnlyFiles("to.txt");
+    }
+
+    private void assertCopyOverwritesTarget() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(dir.resolve("from.bin"), data);
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.copyfile("/c/from.bin", "/c/to.txt");
+        }
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("to.txt")));
+        assertOnlyFiles("from.bin", "to.txt");
+    }
+
+    private String read(String name) throws Exception {
+        return new String(Files.readAllBytes(dir.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 复制结束后不会留下临时文件或备份文件
+     */
+    private void assertOnlyFiles(String... names) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            assertArrayEquals(names, files.map(p -> p.getFileName().toString()).sorted().toArray());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * mkdirs 记录已存在的目录, 以及记录过期后的恢复
+ * @author meilon
+ */
+public class SftpDirMemoTest {
+
+    private final CountingMetricsRecorder metrics = new CountingMetricsRecorder();
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    private void start(int knownDirsSize) throws Exception {
+        server = EmbeddedSftpServer.start();
+        SftpPooledFactory factory = server.newFactory(SftpPoolConfig.builder()
+                .setKnownDirsSize(knownDirsSize)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build());
+        factory.setMetricsRecorder(metrics);
+        pool = factory.getSftpPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void memoIsDisabledByDefault() throws Exception {
+        assertEquals(0, new SftpPoolConfig().getKnownDirsSize());
+        start(SftpPoolConfig.DEFAULT_KNOWN_DIRS_SIZE);
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.mkdirs("/m/a/b");
+            metrics.reset();
+            sftp.mkdirs("/m/a/b");
+            assertEquals(1, metrics.count("lstat"));
+        }
+    }
+
+    @Test
+    public void knownDirsAreSharedAcrossConnections() throws Exception {
+        start(16);
+        SftpConnect first = pool.borrowObject(SFTP_ID);
+        SftpConnect second = pool.borrowObject(SFTP_ID);
+        first.mkdirs("/m/a/b");
+        assertTrue(Files.isDirectory(server.getRoot().resolve("m/a/b")));
+
+        metrics.reset();
+        second.mkdirs("/m/a/b");
+        second.mkdirs("/m/a");
+        assertEquals(0, metrics.count("lstat"));
+        assertEquals(0, metrics.count("mkdir"));
+
+        // 只查询未记录的一级
+        second.mkdirs("/m/a/b/c");
+        assertEquals(1, metrics.count("lstat"));
+        assertEquals(1, metrics.count("mkdir"));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void mkdirsRecreatesDirectoryRemovedByAnotherClient() throws Exception {
+        start(16);
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.mkdirs("/m/a/b");
+            FileUtils.deleteDirectory(server.getRoot().resolve("m/a").toFile());
+
+            sftp.mkdirs("/m/a/b/c");
+            assertTrue(Files.isDirectory(server.getRoot().resolve("m/a/b/c")));
+        }
+    }
+
+    @Test
+    public void uploadRecreatesParentRemovedByAnotherClient() throws Exception {
+        start(16);
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.mkdirs("/m/u");
+            FileUtils.deleteDirectory(server.getRoot().resolve("m").toFile());
+
+            sftp.uploadFile(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), "/m/u/f.txt");
+            Path file = server.getRoot().resolve("m/u/f.txt");
+            assertEquals("hello", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void clearKnownDirsForcesLookup() throws Exception {
+        start(16);
+        try (SftpConnect sftp = pool.borrowObject(SFTP_ID)) {
+            sftp.mkdirs("/m/a");
+            pool.clearKnownDirs(SFTP_ID);
+            metrics.reset();
+            sftp.mkdirs("/m/a");
+            assertEquals(1, metrics.count("lstat"));
+        }
+    }
+}
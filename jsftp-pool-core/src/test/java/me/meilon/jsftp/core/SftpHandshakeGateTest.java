@@ -0,0 +1,115 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ssh 握手并发限制
+ * @author meilon
+ */
+public class SftpHandshakeGateTest {
+
+    @Test
+    public void waitersAcquireInArrivalOrder() throws Exception {
+        SftpHandshakeGate gate = new SftpHandshakeGate(1);
+        assertTrue(gate.acquire(-1));
+        assertTrue(gate.isSaturated());
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    gate.acquire(-1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                order.add(index);
+                gate.release();
+            });
+            thread.start();
+            // 确认已进入等待后再启动下一个, 保证到达顺序
+            assertTrue(EmbeddedSftpServer.await(() -> thread.getState() == Thread.State.WAITING));
+            threads.add(thread);
+        }
+
+        gate.release();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+        assertFalse(gate.isSaturated());
+    }
+
+    @Test
+    public void acquireTimesOutWhenSaturated() throws Exception {
+        SftpHandshakeGate gate = new SftpHandshakeGate(2);
+        assertTrue(gate.acquire(0));
+        assertTrue(gate.acquire(0));
+
+        long begin = System.nanoTime();
+        assertFalse(gate.acquire(TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        gate.release();
+        assertTrue(gate.acquire(0));
+    }
+
+    @Test
+    public void returnedConnectionWakesWaiter() throws Exception {
+        SftpHandshakeGate gate = new SftpHandshakeGate(1);
+        gate.acquire(-1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> woken = executor.submit(() -> gate.awaitChange(TimeUnit.SECONDS.toNanos(5)));
+            Thread.sleep(50);
+            gate.signalReturn();
+            assertTrue(woken.get(1, TimeUnit.SECONDS));
+            // 名额仍被占用
+            assertTrue(gate.isSaturated());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentBorrowsShareLimitedHandshakes() throws Exception {
+        try (EmbeddedSftpServer server = EmbeddedSftpServer.start()) {
+            SftpPool pool = server.newFactory(SftpPoolConfig.builder()
+                    .setMaxHandshakesPerHost(1)
+                    .setMinIdlePerKey(0)
+                    .setMaxWaitMillis(10000)
+                    .build()).getSftpPool();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<SftpConnect>> futures = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    futures.add(executor.submit(() -> pool.borrowObject(SFTP_ID)));
+                }
+                for (Future<SftpConnect> future : futures) {
+                    assertTrue(future.get(10, TimeUnit.SECONDS).isConnected());
+                }
+                assertEquals(4, pool.getNumActive(SFTP_ID));
+                assertEquals(4, server.getSessionCount());
+            } finally {
+                executor.shutdownNow();
+                pool.close();
+            }
+        }
+    }
+}
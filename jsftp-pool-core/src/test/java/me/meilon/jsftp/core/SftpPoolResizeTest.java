@@ -0,0 +1,96 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 调整链接池容量
+ * @author meilon
+ */
+public class SftpPoolResizeTest {
+
+    private final CountingMetricsRecorder metrics = new CountingMetricsRecorder();
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    private void start(SftpPoolConfig.Builder builder) throws Exception {
+        server = EmbeddedSftpServer.start();
+        SftpPooledFactory factory = server.newFactory(builder
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build());
+        factory.setMetricsRecorder(metrics);
+        pool = factory.getSftpPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void shrinkDestroysSurplusIdleWithoutCreating() throws Exception {
+        start(SftpPoolConfig.builder().setMaxTotalPerKey(8));
+        pool.prewarm(Collections.singleton(SFTP_ID), 4);
+        assertEquals(4, pool.getNumIdle(SFTP_ID));
+        assertEquals(4, metrics.getCreates());
+        metrics.reset();
+
+        pool.resize(8, 1);
+        assertEquals(1, pool.getNumIdle(SFTP_ID));
+        assertEquals(3, pool.getDestroyedCount());
+        // 裁剪时不新建也不校验链接
+        assertEquals(0, metrics.getCreates());
+        assertEquals(0, metrics.count("realpath"));
+        assertTrue(EmbeddedSftpServer.await(() -> server.getSessionCount() == 1));
+
+        pool.resize(8, 0);
+        pool.resize(8, 0);
+        assertEquals(0, pool.getNumIdle(SFTP_ID));
+        assertEquals(0, metrics.getCreates());
+        assertEquals(4, pool.getCreatedCount());
+    }
+
+    @Test
+    public void shrinkKeepsBorrowedConnections() throws Exception {
+        start(SftpPoolConfig.builder().setMaxTotalPerKey(4));
+        SftpConnect first = pool.borrowObject(SFTP_ID);
+        SftpConnect second = pool.borrowObject(SFTP_ID);
+
+        pool.resize(1, 0);
+        assertEquals(2, pool.getNumActive(SFTP_ID));
+        assertEquals("/", first.pwd());
+        first.close();
+        second.close();
+        // 超出新容量的链接在归还时销毁
+        assertEquals(0, pool.getNumIdle(SFTP_ID));
+        assertEquals(2, pool.getDestroyedCount());
+    }
+
+    @Test
+    public void growLetsVirtualBorrowersCreate() throws Exception {
+        start(SftpPoolConfig.builder().setMaxTotalPerKey(1).setThreadMode(ThreadMode.VIRTUAL));
+        SftpConnect held = pool.borrowObject(SFTP_ID);
+
+        pool.resize(2, 2);
+        // 扩容后直接新建链接, 不等待已借出的链接归还
+        SftpConnect grown = pool.borrowObject(SFTP_ID);
+        assertNotSame(held, grown);
+        assertEquals(2, pool.getNumActive(SFTP_ID));
+
+        held.close();
+        grown.close();
+    }
+}
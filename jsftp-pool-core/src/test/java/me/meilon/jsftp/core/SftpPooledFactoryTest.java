@@ -0,0 +1,109 @@
+package me.meilon.jsftp.core;
+
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 借用和归还链接, 归还时重置当前目录
+ * @author meilon
+ */
+public class SftpPooledFactoryTest {
+
+    private final CountingMetricsRecorder metrics = new CountingMetricsRecorder();
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSftpServer.start();
+        Files.createDirectories(server.getRoot().resolve("sub/dir"));
+        SftpPooledFactory factory = server.newFactory(SftpPoolConfig.builder()
+                .setMaxTotalPerKey(1)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build());
+        factory.setMetricsRecorder(metrics);
+        pool = factory.getSftpPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void returnWithoutChangingDirectorySendsNoCd() throws Exception {
+        SftpConnect sftp = pool.borrowObject(SFTP_ID);
+        sftp.isDir("/sub");
+        sftp.close();
+        assertSame(sftp, pool.borrowObject(SFTP_ID));
+        sftp.close();
+        assertEquals(0, metrics.count("cd"));
+    }
+
+    @Test
+    public void returnAfterChangingDirectoryResetsToBasePath() throws Exception {
+        SftpConnect sftp = pool.borrowObject(SFTP_ID);
+        sftp.cd("/sub/dir");
+        metrics.reset();
+        sftp.close();
+        assertEquals(1, metrics.count("cd"));
+
+        assertSame(sftp, pool.borrowObject(SFTP_ID));
+        assertEquals("/", sftp.pwd());
+        // 已经在 basePath 中, 再次归还不需要切换目录
+        metrics.reset();
+        sftp.close();
+        assertEquals(0, metrics.count("cd"));
+    }
+
+    @Test
+    public void tryBorrowWaitsNoLongerThanGiven() throws Exception {
+        SftpConnect sftp = pool.borrowObject(SFTP_ID);
+        long begin = System.nanoTime();
+        try {
+            pool.tryBorrowObject(SFTP_ID, Duration.ofMillis(100));
+            fail("pool is exhausted");
+        } catch (NoSuchElementException e) {
+            // 配置的 maxWait 为 5 秒, 只等待指定的时间
+            assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(2));
+        }
+        sftp.close();
+        assertSame(sftp, pool.tryBorrowObject(SFTP_ID, Duration.ofMillis(100)));
+        sftp.close();
+    }
+
+    @Test
+    public void relativeBasePathIsResolvedOnce() throws Exception {
+        SftpPooledFactory factory = (SftpPooledFactory) pool.getFactory();
+        factory.getSftpConnConf(SFTP_ID).setBasePath("sub");
+
+        SftpConnect sftp = pool.borrowObject(SFTP_ID);
+        sftp.close();
+        assertEquals("/sub", sftp.pwd());
+        assertEquals(1, metrics.count("cd"));
+
+        // basePath 是相对路径, 与 pwd 不相等, 按上次切换的结果判断
+        metrics.reset();
+        sftp = pool.borrowObject(SFTP_ID);
+        sftp.close();
+        assertEquals(0, metrics.count("cd"));
+        assertEquals("/sub", sftp.pwd());
+    }
+}
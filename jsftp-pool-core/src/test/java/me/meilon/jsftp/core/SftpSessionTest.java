@@ -0,0 +1,134 @@
+package me.meilon.jsftp.core;
+
+import com.jcraft.jsch.SftpException;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 多个通道共享 ssh 会话
+ * @author meilon
+ */
+public class SftpSessionTest {
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSftpServer.start();
+        pool = server.newFactory(SftpPoolConfig.builder()
+                .setChannelsPerSession(4)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build()).getSftpPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void sessionIsClosedWithItsLastChannel() throws Exception {
+        SftpConnect first = pool.borrowObject(SFTP_ID);
+        SftpConnect second = pool.borrowObject(SFTP_ID);
+        SftpConnect third = pool.borrowObject(SFTP_ID);
+        assertEquals(2, server.getSessionCount());
+
+        pool.invalidateObject(SFTP_ID, first);
+        // second 仍在使用同一个会话
+        assertTrue(second.isConnected());
+        assertEquals("/", second.pwd());
+        assertEquals(2, server.getSessionCount());
+
+        pool.invalidateObject(SFTP_ID, second);
+        assertTrue(EmbeddedSftpServer.await(() -> server.getSessionCount() == 1));
+        assertTrue(third.isConnected());
+
+        pool.invalidateObject(SFTP_ID, third);
+        assertTrue(EmbeddedSftpServer.await(() -> server.getSessionCount() == 0));
+    }
+
+    @Test
+    public void releasedChannelSlotIsReused() throws Exception {
+        SftpConnect first = pool.borrowObject(SFTP_ID);
+        SftpConnect second = pool.borrowObject(SFTP_ID);
+        pool.invalidateObject(SFTP_ID, first);
+
+        SftpConnect third = pool.borrowObject(SFTP_ID);
+        assertNotSame(first, third);
+        assertEquals(1, server.getSessionCount());
+        assertTrue(third.isConnected());
+
+        second.close();
+        third.close();
+    }
+
+    @Test
+    public void packetChannelsStayWithinSessionChannels() throws Exception {
+        // 服务端每个会话最多 4 个通道, 与 channelsPerSession 一致
+        EmbeddedSftpServer limited = EmbeddedSftpServer.start(0, 4, null);
+        SftpPool limitedPool = limited.newFactory(SftpPoolConfig.builder()
+                .setChannelsPerSession(4)
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build()).getSftpPool();
+        try {
+            SftpConnect first = limitedPool.borrowObject(SFTP_ID);
+            SftpConnect second = limitedPool.borrowObject(SFTP_ID);
+            // 批量操作在预留的名额上打开报文通道
+            assertTrue(first.batch().stat("/").execute().get(0).isSuccess());
+            assertTrue(second.batch().stat("/").execute().get(0).isSuccess());
+            assertEquals(1, limited.getSessionCount());
+
+            // 会话上没有空闲名额, 本地直接拒绝, 不向服务端打开通道
+            try {
+                first.openPacketChannel();
+                fail("session has no free channel");
+            } catch (SftpException e) {
+                assertTrue(first.isConnected());
+            }
+
+            SftpConnect third = limitedPool.borrowObject(SFTP_ID);
+            assertTrue(third.batch().stat("/").execute().get(0).isSuccess());
+            assertEquals(2, limited.getSessionCount());
+
+            first.close();
+            second.close();
+            third.close();
+        } finally {
+            limitedPool.close();
+            limited.close();
+        }
+    }
+
+    @Test
+    public void lostSessionInvalidatesAllItsChannels() throws Exception {
+        SftpConnect first = pool.borrowObject(SFTP_ID);
+        SftpConnect second = pool.borrowObject(SFTP_ID);
+        server.closeSessions();
+
+        assertTrue(EmbeddedSftpServer.await(() -> !first.isConnected()));
+        assertFalse(second.isConnected());
+        first.close();
+        second.close();
+        assertEquals(0, pool.getNumIdle(SFTP_ID));
+
+        // 断开的会话不再分配通道
+        SftpConnect third = pool.borrowObject(SFTP_ID);
+        assertTrue(third.isConnected());
+        assertTrue(EmbeddedSftpServer.await(() -> server.getSessionCount() == 1));
+        third.close();
+    }
+}
@@ -0,0 +1,168 @@
+package me.meilon.jsftp.core.transfer;
+
+import me.meilon.jsftp.core.EmbeddedSftpServer;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.conf.SftpPoolConfig;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static me.meilon.jsftp.core.EmbeddedSftpServer.SFTP_ID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分段并行下载和上传, 分段失败后从偏移量处继续
+ * @author meilon
+ */
+public class ParallelTransferTest {
+
+    private static final int SIZE = 1024 * 1024;
+
+    private static final int PART_SIZE = SIZE / 2;
+
+    /**
+     * 在第二个分段中间注入一次失败
+     */
+    private static final long FAIL_OFFSET = PART_SIZE + PART_SIZE / 2;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final FailOnce listener = new FailOnce();
+
+    private EmbeddedSftpServer server;
+
+    private SftpPool pool;
+
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSftpServer.start(listener);
+        pool = server.newFactory(SftpPoolConfig.builder()
+                .setMinIdlePerKey(0)
+                .setMaxWaitMillis(5000)
+                .build()).getSftpPool();
+        data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void downloadResumesFailedPartFromLastPosition() throws Exception {
+        Files.write(server.getRoot().resolve("big.bin"), data);
+        File local = new File(temp.getRoot(), "big.bin");
+        listener.failReads = true;
+
+        ParallelDownloader downloader = new ParallelDownloader(pool);
+        downloader.setMinPartSize(PART_SIZE);
+        assertEquals(SIZE, downloader.downloadParallel(SFTP_ID, "/big.bin", local.getPath(), 2));
+
+        assertTrue(listener.failed.get());
+        assertArrayEquals(data, Files.readAllBytes(local.toPath()));
+        // 两个分段各打开一次, 失败的分段重新打开一次
+        List<Long> starts = listener.firstOffsets();
+        assertEquals(3, starts.size());
+        assertTrue(starts.remove(Long.valueOf(0)));
+        assertTrue(starts.remove(Long.valueOf(PART_SIZE)));
+        // 失败前的数据已经写入本地文件, 从失败的读请求处继续
+        assertEquals(listener.failedAt, (long) starts.get(0));
+    }
+
+    @Test
+    public void uploadRetriesOnlyTheFailedPartAtItsOffset() throws Exception {
+        Path local = temp.newFile("big.bin").toPath();
+        Files.write(local, data);
+        Files.createDirectory(server.getRoot().resolve("up"));
+        listener.failWrites = true;
+
+        ParallelUploader uploader = new ParallelUploader(pool);
+        uploader.setMinPartSize(PART_SIZE);
+        assertEquals("/up/big.bin", uploader.uploadParallel(SFTP_ID, local.toString(), "/up/", 2));
+
+        assertTrue(listener.failed.get());
+        assertArrayEquals(data, Files.readAllBytes(server.getRoot().resolve("up/big.bin")));
+        assertEquals(1, Files.list(server.getRoot().resolve("up")).count());
+        // 第一个分段只写一次, 失败的分段在新的句柄上从分段起点重写
+        assertEquals(1, listener.writesAt(0));
+        assertEquals(2, listener.writesAt(PART_SIZE));
+        List<Long> starts = listener.firstOffsets();
+        assertEquals(3, starts.size());
+        assertEquals(1, starts.stream().filter(o -> o == 0).count());
+        assertEquals(2, starts.stream().filter(o -> o == PART_SIZE).count());
+    }
+
+    /**
+     * 读写到 {@link #FAIL_OFFSET} 之后的数据时失败一次, 并记录每个句柄第一次读写的偏移量
+     */
+    private static class FailOnce implements SftpEventListener {
+
+        volatile boolean failReads;
+
+        volatile boolean failWrites;
+
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        volatile long failedAt = -1;
+
+        final Map<String, Long> firstOffsets = new ConcurrentHashMap<>();
+
+        final Map<Long, AtomicInteger> writes = new ConcurrentHashMap<>();
+
+        @Override
+        public void reading(ServerSession session, String remoteHandle, FileHandle localHandle,
+                            long offset, byte[] data, int dataOffset, int dataLen) throws IOException {
+            Long first = firstOffsets.computeIfAbsent(remoteHandle, k -> offset);
+            // 第一个分段的预读请求也可能超过 FAIL_OFFSET, 只在第二个分段上注入
+            if (failReads && first == PART_SIZE && offset >= FAIL_OFFSET && failed.compareAndSet(false, true)) {
+                failedAt = offset;
+                throw new IOException("injected read failure at " + offset);
+            }
+        }
+
+        @Override
+        public void writing(ServerSession session, String remoteHandle, FileHandle localHandle,
+                            long offset, byte[] data, int dataOffset, int dataLen) throws IOException {
+            firstOffsets.putIfAbsent(remoteHandle, offset);
+            writes.computeIfAbsent(offset, k -> new AtomicInteger()).incrementAndGet();
+            if (failWrites && offset >= FAIL_OFFSET && failed.compareAndSet(false, true)) {
+                failedAt = offset;
+                throw new IOException("injected write failure at " + offset);
+            }
+        }
+
+        List<Long> firstOffsets() {
+            return firstOffsets.values().stream().sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+
+        int writesAt(long offset) {
+            AtomicInteger count = writes.get(offset);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
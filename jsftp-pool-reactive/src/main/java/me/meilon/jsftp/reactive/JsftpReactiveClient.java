@@ -0,0 +1,183 @@
+package me.meilon.jsftp.reactive;
+
+import com.jcraft.jsch.ChannelSftp;
+import me.meilon.jsftp.client.JsftpClientFactory;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.conf.SftpConnConfig;
+import me.meilon.jsftp.core.conf.ThreadMode;
+import me.meilon.jsftp.core.exception.SftpConfigException;
+import me.meilon.jsftp.core.utils.ThreadUtil;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 响应式 sftp 客户端
+ * <p>
+ * 以 reactive-streams {@link Publisher} 的形式提供目录列表和文件内容, 支持背压:
+ * 只在下游请求数据时才从 sftp 读取; 每次订阅独立借用一个链接, 完成, 出错或取消时归还;
+ * 阻塞的 sftp 读取在单独的线程池中执行, 可以直接用于 Reactor 等响应式框架, 不需要再包装到 boundedElastic 中
+ * @author meilon
+ */
+public class JsftpReactiveClient {
+
+    /**
+     * 默认读取文件的分块大小
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * 列出目录时默认预读的最大条目数
+     */
+    public static final int DEFAULT_LIST_PREFETCH = 64;
+
+    private static volatile ExecutorService defaultExecutor;
+
+    private final SftpPool pool;
+    private final SftpConnConfig config;
+    private final Executor executor;
+
+    public JsftpReactiveClient(SftpPool pool, SftpConnConfig config) {
+        this(pool, config, defaultExecutor());
+    }
+
+    /**
+     * @param pool 链接池
+     * @param config sftp链接配置
+     * @param executor 执行 sftp 读取和下游 onNext 回调的线程池
+     */
+    public JsftpReactiveClient(SftpPool pool, SftpConnConfig config, Executor executor) {
+        this.pool = pool;
+        this.config = config;
+        this.executor = executor;
+    }
+
+    /**
+     * 通过事先定义的 sftpId 创建响应式客户端
+     * @param factory JsftpClient 工厂
+     * @param sftpId 指定sftp的唯一id
+     */
+    public JsftpReactiveClient(JsftpClientFactory factory, String sftpId) {
+        this(factory.getPooledFactory().getSftpPool(), requireConfig(factory, sftpId));
+    }
+
+    /**
+     * 列出远程目录下的文件属性, 不包含 "." 和 ".."
+     * 最多预读 {@link #DEFAULT_LIST_PREFETCH} 个条目, 下游不请求时暂停读取目录
+     * @param remotePath 远程目录
+     * @return 文件属性发布者
+     */
+    public Publisher<ChannelSftp.LsEntry> listFiles(String remotePath) {
+        return listFiles(remotePath, DEFAULT_LIST_PREFETCH);
+    }
+
+    /**
+     * 列出远程目录下的文件属性, 不包含 "." 和 ".."
+     * prefetch 决定在下游请求之外最多提前读取多少条目;
+     * 下游每次只请求少量条目且处理较慢时 (如 limitRate(1)), 可设为 0, 下游请求一个条目时才读取一个条目
+     * @param remotePath 远程目录
+     * @param prefetch 预读的最大条目数, 0 表示不预读
+     * @return 文件属性发布者
+     * @see me.meilon.jsftp.core.SftpConnect#streamFiles(String, int)
+     */
+    public Publisher<ChannelSftp.LsEntry> listFiles(String remotePath, int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch must not be negative");
+        }
+        return new SftpPublisher<>(pool, config, executor, sftp -> {
+            Stream<ChannelSftp.LsEntry> stream = sftp.streamFiles(remotePath, prefetch);
+            Iterator<ChannelSftp.LsEntry> it = stream.iterator();
+            return new SftpPublisher.Source<ChannelSftp.LsEntry>() {
+                @Override
+                public ChannelSftp.LsEntry next() {
+                    return it.hasNext() ? it.next() : null;
+                }
+
+                @Override
+                public void close() {
+                    stream.close();
+                }
+            };
+        });
+    }
+
+    /**
+     * 按块读取远程文件内容
+     * @param remoteFilePath 远程文件路径
+     * @return 文件内容发布者
+     */
+    public Publisher<ByteBuffer> readFile(String remoteFilePath) {
+        return readFile(remoteFilePath, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 按块读取远程文件内容
+     * 每次下游请求一个数据块时才读取一块, 每个 ByteBuffer 都是独立的, 下游可以长期持有
+     * @param remoteFilePath 远程文件路径
+     * @param chunkSize 每块的最大字节数
+     * @return 文件内容发布者
+     */
+    public Publisher<ByteBuffer> readFile(String remoteFilePath, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        return new SftpPublisher<>(pool, config, executor, sftp -> {
+            InputStream in = sftp.openFile(remoteFilePath);
+            return new SftpPublisher.Source<ByteBuffer>() {
+                @Override
+                public ByteBuffer next() throws Exception {
+                    byte[] buf = new byte[chunkSize];
+                    int len = 0;
+                    // 尽量读满一块, 减少下游收到的碎片
+                    while (len < chunkSize) {
+                        int n = in.read(buf, len, chunkSize - len);
+                        if (n < 0) {
+                            break;
+                        }
+                        len += n;
+                    }
+                    return len == 0 ? null : ByteBuffer.wrap(buf, 0, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        });
+    }
+
+    private static SftpConnConfig requireConfig(JsftpClientFactory factory, String sftpId) {
+        SftpConnConfig config = factory.getPooledFactory().getSftpConnConf(sftpId);
+        if (config == null) {
+            throw new SftpConfigException("SftpConnConfig is null, sftpId: " + sftpId);
+        }
+        return config;
+    }
+
+    /**
+     * 默认线程池, 所有客户端共享
+     * 线程按需创建, 空闲 60 秒后回收; 运行环境支持时使用虚拟线程
+     */
+    private static ExecutorService defaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (JsftpReactiveClient.class) {
+                if (defaultExecutor == null) {
+                    ThreadMode mode = ThreadUtil.isVirtualThreadSupported() ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+                    defaultExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                            new SynchronousQueue<>(), ThreadUtil.newThreadFactory("jsftp-reactive", mode));
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+}
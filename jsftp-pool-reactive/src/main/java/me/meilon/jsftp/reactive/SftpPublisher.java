@@ -0,0 +1,253 @@
+package me.meilon.jsftp.reactive;
+
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.conf.SftpConnConfig;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按需读取的 sftp 数据发布者
+ * <p>
+ * 冷发布者, 每次订阅独立借用一个链接: 第一次请求数据时借用, 完成或取消时归还, 打开或读取数据源出错时销毁;
+ * 只在下游请求数据时才从数据源读取, 读取和 onNext 回调在指定的线程池中串行执行, 不会阻塞调用 request 的线程
+ * @author meilon
+ * @param <T> 发布的数据类型
+ */
+final class SftpPublisher<T> implements Publisher<T> {
+
+    private final SftpPool pool;
+
+    private final SftpConnConfig config;
+
+    private final Executor executor;
+
+    private final SourceOpener<T> opener;
+
+    SftpPublisher(SftpPool pool, SftpConnConfig config, Executor executor, SourceOpener<T> opener) {
+        this.pool = pool;
+        this.config = config;
+        this.executor = executor;
+        this.opener = opener;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber is null");
+        }
+        SftpSubscription subscription = new SftpSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * 在借出的链接上打开数据源
+     * @param <T> 数据类型
+     */
+    @FunctionalInterface
+    interface SourceOpener<T> {
+
+        /**
+         * 打开数据源
+         * @param sftp 借出的 sftp 链接
+         * @return 数据源
+         * @throws Exception 打开失败
+         */
+        Source<T> open(SftpConnect sftp) throws Exception;
+    }
+
+    /**
+     * 按需读取的数据源
+     * @param <T> 数据类型
+     */
+    interface Source<T> extends Closeable {
+
+        /**
+         * 读取下一条数据
+         * @return 数据, 没有更多数据时返回 null
+         * @throws Exception 读取失败
+         */
+        T next() throws Exception;
+    }
+
+    private final class SftpSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> subscriber;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled = false;
+
+        private volatile Throwable invalidRequest;
+
+        // 以下字段只在 drain 线程中访问
+        private boolean done = false;
+
+        private SftpConnect sftp;
+
+        private Source<T> source;
+
+        SftpSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("request must be positive, but was " + n);
+            }
+            else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    if (current == Long.MAX_VALUE) {
+                        break;
+                    }
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!requested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                invalidRequest = e;
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                done = true;
+                release();
+                return;
+            }
+            if (invalidRequest != null) {
+                // 不是链接的问题, 与取消一样归还链接
+                done = true;
+                release();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            long r = requested.get();
+            if (r == 0) {
+                return;
+            }
+            try {
+                if (source == null) {
+                    sftp = pool.borrowObject(config);
+                    source = opener.open(sftp);
+                }
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+            long emitted = 0;
+            while (emitted != r) {
+                if (cancelled) {
+                    done = true;
+                    release();
+                    return;
+                }
+                T item;
+                try {
+                    item = source.next();
+                } catch (Throwable e) {
+                    fail(e);
+                    return;
+                }
+                if (item == null) {
+                    done = true;
+                    release();
+                    subscriber.onComplete();
+                    return;
+                }
+                subscriber.onNext(item);
+                emitted++;
+            }
+            if (r != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        /**
+         * 打开或读取数据源出错, 通道上可能还有未读完的数据, 销毁链接后通知下游
+         */
+        private void fail(Throwable e) {
+            done = true;
+            closeSource();
+            if (sftp != null) {
+                try {
+                    pool.invalidateObject(sftp.getId(), sftp);
+                } catch (Exception ex) {
+                    // 销毁失败的链接同样会从链接池中移除
+                }
+                sftp = null;
+            }
+            subscriber.onError(e);
+        }
+
+        /**
+         * 关闭数据源并归还链接
+         * 链接池归还时会校验链接, 已损坏的链接会被销毁
+         */
+        private void release() {
+            closeSource();
+            if (sftp != null) {
+                sftp.close();
+                sftp = null;
+            }
+        }
+
+        private void closeSource() {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    // 关闭失败的链接在归还校验时处理
+                }
+                source = null;
+            }
+        }
+    }
+}
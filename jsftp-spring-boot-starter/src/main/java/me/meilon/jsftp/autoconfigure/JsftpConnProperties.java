@@ -44,6 +44,12 @@ public class JsftpConnProperties {
      */
     private Boolean autoDisconnect = false;
 
+    /**
+     * 每个 ssh 会话上最多打开的通道数, 每个链接占用 2 个通道
+     * 不设置时使用 sftp-pool.channelsPerSession
+     */
+    private Integer channelsPerSession;
+
     public String getId() {
         return id;
     }
@@ -91,4 +97,12 @@ public class JsftpConnProperties {
     public void setAutoDisconnect(Boolean autoDisconnect) {
         this.autoDisconnect = autoDisconnect;
     }
+
+    public Integer getChannelsPerSession() {
+        return channelsPerSession;
+    }
+
+    public void setChannelsPerSession(Integer channelsPerSession) {
+        this.channelsPerSession = channelsPerSession;
+    }
 }
@@ -2,6 +2,10 @@ package me.meilon.jsftp.autoconfigure;
 
 
 import me.meilon.jsftp.client.JsftpClientFactory;
+import me.meilon.jsftp.core.metrics.SftpPoolMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -16,9 +20,34 @@ import org.springframework.context.annotation.Configuration;
 public class JsftpPoolConfiguration {
 
 
-    @Bean
+    @Bean(destroyMethod = "shutdownAsync")
     public JsftpClientFactory jsftpClientFactory(JsftpPoolProperties properties){
-        return new JsftpClientFactory(properties.getSftpConnConfigMap(), properties);
+        JsftpClientFactory factory = new JsftpClientFactory(properties.getSftpConnConfigMap(), properties);
+        if (properties.getAsync() != null){
+            factory.setAsyncConfig(properties.getAsync());
+        }
+        return factory;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "sftp-pool", name = "prewarm-on-startup", havingValue = "true")
+    public JsftpPoolPrewarmer jsftpPoolPrewarmer(JsftpClientFactory factory){
+        return new JsftpPoolPrewarmer(factory.getPooledFactory().getSftpPool());
+    }
+
+    /**
+     * 引入 micrometer 时发布链接池指标
+     * MeterBinder 会由 spring boot actuator 自动绑定到 MeterRegistry
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class JsftpPoolMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public SftpPoolMetrics sftpPoolMetrics(JsftpClientFactory factory){
+            return new SftpPoolMetrics(factory.getPooledFactory());
+        }
     }
 
 }
@@ -0,0 +1,52 @@
+package me.meilon.jsftp.autoconfigure;
+
+import lombok.extern.slf4j.Slf4j;
+import me.meilon.jsftp.core.PrewarmResult;
+import me.meilon.jsftp.core.SftpPool;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 应用启动时预热链接池
+ * 在 ApplicationRunner 阶段同步执行, 完成后应用才进入就绪状态; 预热失败只记录日志, 不影响启动
+ * @author meilon
+ */
+@Slf4j
+public class JsftpPoolPrewarmer implements ApplicationRunner {
+
+    private final SftpPool pool;
+
+    private volatile Map<String, PrewarmResult> results = Collections.emptyMap();
+
+    public JsftpPoolPrewarmer(SftpPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        results = Collections.unmodifiableMap(pool.prewarm());
+        for (PrewarmResult result : results.values()) {
+            if (result.isSuccess()) {
+                log.info("prewarm {} created {} in {}ms", result.getSftpId(), result.getCreated(),
+                        result.getElapsedMillis());
+            }
+            else {
+                log.warn("prewarm {} created {}/{} in {}ms: {}", result.getSftpId(), result.getCreated(),
+                        result.getRequested(), result.getElapsedMillis(), result.getError().getMessage());
+            }
+        }
+        log.info("prewarm sftp pool finished in {}ms", System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 获取启动时的预热结果
+     * @return 每个 sftpId 的预热结果, 尚未预热时为空
+     */
+    public Map<String, PrewarmResult> getResults() {
+        return results;
+    }
+}
@@ -1,10 +1,12 @@
 package me.meilon.jsftp.autoconfigure;
 
 
+import me.meilon.jsftp.client.JsftpAsyncConfig;
 import me.meilon.jsftp.core.conf.SftpConnConfig;
 import me.meilon.jsftp.core.conf.SftpPoolConfig;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,6 +22,46 @@ public class JsftpPoolProperties extends SftpPoolConfig {
      */
     private Map<String, JsftpConnProperties> connConfigs;
 
+    /**
+     * 异步客户端的线程池配置
+     */
+    private JsftpAsyncConfig async = new JsftpAsyncConfig();
+
+    /**
+     * 健康检查探测链接的最小间隔, 间隔内的健康检查直接返回上一次的结果
+     */
+    private Duration healthCheckInterval = Duration.ofSeconds(30);
+
+    /**
+     * 是否在应用启动时预热链接池, 为每个 sftp 并行建立 minIdlePerKey 个链接;
+     * 预热完成后应用才进入就绪状态
+     */
+    private boolean prewarmOnStartup = false;
+
+    public boolean isPrewarmOnStartup() {
+        return prewarmOnStartup;
+    }
+
+    public void setPrewarmOnStartup(boolean prewarmOnStartup) {
+        this.prewarmOnStartup = prewarmOnStartup;
+    }
+
+    public Duration getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(Duration healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public JsftpAsyncConfig getAsync() {
+        return async;
+    }
+
+    public void setAsync(JsftpAsyncConfig async) {
+        this.async = async;
+    }
+
     public Map<String, JsftpConnProperties> getConnConfigs() {
         return connConfigs;
     }
@@ -46,6 +88,9 @@ public class JsftpPoolProperties extends SftpPoolConfig {
                         properties.getPassword(),
                         properties.getId());
                 conf.setAutoDisconnect(properties.getAutoDisconnect());
+                if (properties.getChannelsPerSession() != null){
+                    conf.setChannelsPerSession(properties.getChannelsPerSession());
+                }
                 configMap.put(entry.getKey(),conf);
             }
         }
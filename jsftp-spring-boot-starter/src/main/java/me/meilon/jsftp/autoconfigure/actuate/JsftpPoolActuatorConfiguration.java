@@ -0,0 +1,63 @@
+package me.meilon.jsftp.autoconfigure.actuate;
+
+import me.meilon.jsftp.autoconfigure.JsftpPoolConfiguration;
+import me.meilon.jsftp.autoconfigure.JsftpPoolProperties;
+import me.meilon.jsftp.client.JsftpClientFactory;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.SftpPooledFactory;
+import me.meilon.jsftp.core.metrics.RecentLatencyRecorder;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
+import org.springframework.boot.actuate.health.CompositeHealthContributor;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * sftp pool actuator 配置
+ * 引入 spring-boot-actuator 时注册每个 sftpId 的健康检查和 sftppool 管理端点
+ * @author meilon
+ */
+@Configuration
+@ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+@ConditionalOnBean(JsftpClientFactory.class)
+@AutoConfigureAfter(JsftpPoolConfiguration.class)
+public class JsftpPoolActuatorConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public RecentLatencyRecorder sftpRecentLatencyRecorder(JsftpClientFactory factory){
+        RecentLatencyRecorder recorder = new RecentLatencyRecorder();
+        factory.getPooledFactory().addMetricsRecorder(recorder);
+        return recorder;
+    }
+
+    @Bean
+    @ConditionalOnEnabledHealthIndicator("sftppool")
+    @ConditionalOnMissingBean(name = "sftpPoolHealthContributor")
+    public CompositeHealthContributor sftpPoolHealthContributor(JsftpClientFactory factory,
+                                                                JsftpPoolProperties properties){
+        SftpPooledFactory pooledFactory = factory.getPooledFactory();
+        SftpPool pool = pooledFactory.getSftpPool();
+        Map<String, HealthIndicator> indicators = new LinkedHashMap<>();
+        for (String sftpId : new TreeSet<>(pooledFactory.getSftpIds())) {
+            indicators.put(sftpId, new SftpHealthIndicator(pool, sftpId, properties.getHealthCheckInterval()));
+        }
+        return CompositeHealthContributor.fromMap(indicators);
+    }
+
+    @Bean
+    @ConditionalOnAvailableEndpoint
+    @ConditionalOnMissingBean
+    public SftpPoolEndpoint sftpPoolEndpoint(JsftpClientFactory factory, RecentLatencyRecorder latencyRecorder){
+        return new SftpPoolEndpoint(factory.getPooledFactory(), latencyRecorder);
+    }
+}
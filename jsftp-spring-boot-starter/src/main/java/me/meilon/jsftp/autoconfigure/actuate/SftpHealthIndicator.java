@@ -0,0 +1,97 @@
+package me.meilon.jsftp.autoconfigure.actuate;
+
+import me.meilon.jsftp.core.SftpCircuitBreaker;
+import me.meilon.jsftp.core.SftpConnect;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.SftpPooledFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单个 sftp 的健康检查
+ * <p>
+ * 从链接池借用一个链接并发送一次 realpath 请求确认服务端可用;
+ * 探测结果会缓存, 间隔内的健康检查直接返回缓存结果; 同一时刻只有一个线程探测, 其他线程返回上一次的结果;
+ * 探测本身会借用一个链接: 链接池耗尽时最多等待 {@link #BORROW_TIMEOUT}, 超时返回 UNKNOWN, 不会等待完整的 maxWait;
+ * 熔断器打开时借用直接失败, 不会等待连接超时
+ * @author meilon
+ */
+public class SftpHealthIndicator implements HealthIndicator {
+
+    /**
+     * 链接池耗尽时探测等待空闲链接的最长时间
+     */
+    static final Duration BORROW_TIMEOUT = Duration.ofSeconds(1);
+
+    private final SftpPool pool;
+
+    private final String sftpId;
+
+    private final long intervalNanos;
+
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+
+    private volatile Health cached;
+
+    private volatile long checkedAt;
+
+    public SftpHealthIndicator(SftpPool pool, String sftpId, Duration interval) {
+        this.pool = pool;
+        this.sftpId = sftpId;
+        this.intervalNanos = interval.toNanos();
+    }
+
+    @Override
+    public Health health() {
+        Health health = cached;
+        if (health != null && System.nanoTime() - checkedAt < intervalNanos) {
+            return health;
+        }
+        if (!probing.compareAndSet(false, true)) {
+            return health != null ? health : Health.unknown().withDetail("sftpId", sftpId).build();
+        }
+        try {
+            health = probe();
+            cached = health;
+            checkedAt = System.nanoTime();
+            return health;
+        } finally {
+            probing.set(false);
+        }
+    }
+
+    private Health probe() {
+        long begin = System.nanoTime();
+        Health.Builder builder;
+        try (SftpConnect sftp = pool.tryBorrowObject(sftpId, BORROW_TIMEOUT)) {
+            sftp.getChannelSftp().realpath(".");
+            builder = Health.up();
+        } catch (NoSuchElementException e) {
+            if (e.getCause() != null) {
+                // 新建的链接激活或校验失败
+                builder = Health.down(e);
+            }
+            else {
+                // 链接都在使用中, 无法判断服务端是否可用
+                builder = Health.unknown().withDetail("error", "pool exhausted: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            builder = Health.down(e);
+        }
+        builder.withDetail("sftpId", sftpId)
+                .withDetail("probeMillis", Duration.ofNanos(System.nanoTime() - begin).toMillis())
+                .withDetail("active", pool.getNumInUse(sftpId))
+                .withDetail("idle", pool.getNumIdle(sftpId))
+                .withDetail("parked", pool.getNumParked(sftpId))
+                .withDetail("checkedAt", System.currentTimeMillis());
+        SftpCircuitBreaker breaker = ((SftpPooledFactory) pool.getFactory()).getCircuitBreaker(sftpId);
+        if (breaker != null) {
+            builder.withDetail("circuit", breaker.getState());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,108 @@
+package me.meilon.jsftp.autoconfigure.actuate;
+
+import me.meilon.jsftp.core.PrewarmResult;
+import me.meilon.jsftp.core.SftpPool;
+import me.meilon.jsftp.core.SftpPooledFactory;
+import me.meilon.jsftp.core.metrics.RecentLatencyRecorder;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * sftp 链接池管理端点, 路径为 /actuator/sftppool
+ * <p>
+ * 读操作返回每个 sftpId 的链接数和近期的借用, 创建耗时;
+ * 写操作 action=clear 清空指定 sftpId 的空闲链接, action=prewarm 预先创建空闲链接
+ * @author meilon
+ */
+@Endpoint(id = "sftppool")
+public class SftpPoolEndpoint {
+
+    static final String ACTION_CLEAR = "clear";
+    static final String ACTION_PREWARM = "prewarm";
+
+    private final SftpPooledFactory factory;
+
+    private final RecentLatencyRecorder latencyRecorder;
+
+    public SftpPoolEndpoint(SftpPooledFactory factory, RecentLatencyRecorder latencyRecorder) {
+        this.factory = factory;
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    @ReadOperation
+    public Map<String, Object> pools() {
+        SftpPool pool = factory.getSftpPool();
+        Set<String> sftpIds = new TreeSet<>(factory.getSftpIds());
+        sftpIds.addAll(pool.getNumActivePerKey().keySet());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("numActive", pool.getNumInUse());
+        result.put("numIdle", pool.getNumIdle());
+        result.put("numParked", pool.getNumParked());
+        result.put("threadMode", pool.getThreadMode());
+        Map<String, Object> pools = new LinkedHashMap<>();
+        for (String sftpId : sftpIds) {
+            pools.put(sftpId, describe(pool, sftpId));
+        }
+        result.put("pools", pools);
+        return result;
+    }
+
+    @ReadOperation
+    public Map<String, Object> pool(@Selector String sftpId) {
+        if (factory.getSftpConnConf(sftpId) == null) {
+            return null;
+        }
+        return describe(factory.getSftpPool(), sftpId);
+    }
+
+    /**
+     * 清空或预热指定 sftpId 的链接
+     * @param sftpId 指定sftp的唯一id
+     * @param action clear 或 prewarm
+     * @return 操作后的链接池状态
+     */
+    @WriteOperation
+    public Map<String, Object> execute(@Selector String sftpId, String action) {
+        if (factory.getSftpConnConf(sftpId) == null) {
+            return null;
+        }
+        SftpPool pool = factory.getSftpPool();
+        if (ACTION_CLEAR.equalsIgnoreCase(action)) {
+            pool.clear(sftpId);
+        }
+        else if (ACTION_PREWARM.equalsIgnoreCase(action)) {
+            PrewarmResult result = pool.prewarm(sftpId);
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("prewarm " + sftpId + " failed: " + result.getError().getMessage(),
+                        result.getError());
+            }
+        }
+        else {
+            throw new InvalidEndpointRequestException("Unsupported action: " + action,
+                    "action must be clear or prewarm");
+        }
+        return describe(pool, sftpId);
+    }
+
+    private Map<String, Object> describe(SftpPool pool, String sftpId) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("active", pool.getNumInUse(sftpId));
+        state.put("idle", pool.getNumIdle(sftpId));
+        state.put("parked", pool.getNumParked(sftpId));
+        state.put("waiters", pool.getNumWaitersByKey().getOrDefault(sftpId, 0));
+        if (latencyRecorder != null) {
+            state.put("borrowLatency", latencyRecorder.getBorrowLatency(sftpId));
+            state.put("createLatency", latencyRecorder.getCreateLatency(sftpId));
+            state.put("createFailures", latencyRecorder.getCreateFailureCount(sftpId));
+        }
+        return state;
+    }
+}